@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import benchmark.CodingTask;
+import util.RSUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Builds the stripes and coders the benchmarks in package benchmark time.
+ * A cell is cellSize bytes for every codec; MSRRaw takes its l sub-packets
+ * as separate units of cellSize/l. BUFFER_ARRAY_CONTEXT codes the byte
+ * arrays with one CodingContext for all calls, as a stripe loop does. The
+ * codec and buffer names are those of CodingTask.
+ */
+public final class CodingTasks {
+  private CodingTasks() {
+    // No called
+  }
+
+  /**
+   * @return whether the coders of codec take the schema: the MSR ones need
+   * its unshortened length in GF(2^8), and MSRNew its l sub-packets to fit
+   * evenly in a band of MSRNewEncoder.SLICE_UNIT bytes
+   */
+  public static boolean isSupported(String codec, int numDataUnits,
+      int numParityUnits) {
+    if (CoderRegistry.RS_CODEC.equals(codec)) {
+      return true;
+    }
+    if (!CoderRegistry.MSR_CODEC.equals(codec) &&
+        !CoderRegistry.MSR_RAW_CODEC.equals(codec)) {
+      throw new IllegalArgumentException("Unknown codec " + codec);
+    }
+    int numAllUnits = numDataUnits + numParityUnits;
+    if (numAllUnits + RSUtil.getMSRNumVirtualUnits(numAllUnits,
+        numDataUnits) >= RSUtil.GF.getFieldSize()) {
+      return false;
+    }
+    return CoderRegistry.MSR_RAW_CODEC.equals(codec) ||
+        MSRNewEncoder.SLICE_UNIT %
+            RSUtil.getMSRSubPackets(numAllUnits, numDataUnits) == 0;
+  }
+
+  public static CodingTask newEncodeTask(String codec, int numDataUnits,
+      int numParityUnits, int cellSize, String buffer) {
+    final RawErasureEncoder encoder = CoderRegistry.createEncoder(codec,
+        new ErasureCoderOptions(numDataUnits, numParityUnits));
+    int l = getSubPacketCount(codec, numDataUnits, numParityUnits);
+    Random random = new Random(cellSize);
+    final byte[][] inputs = newArrays(numDataUnits * l, cellSize / l, random);
+    final byte[][] outputs = newArrays(numParityUnits * l, cellSize / l, null);
+    final long codedBytes = (long) numDataUnits * cellSize;
+
+    if (CodingTask.BUFFER_ARRAY.equals(buffer)) {
+      return new CodingTask() {
+        @Override
+        public void code() throws IOException {
+          encoder.encode(inputs, outputs);
+        }
+
+        @Override
+        public long getCodedBytes() {
+          return codedBytes;
+        }
+      };
+    }
+    if (CodingTask.BUFFER_ARRAY_CONTEXT.equals(buffer)) {
+      final CodingContext context = encoder.createContext();
+      return new CodingTask() {
+        @Override
+        public void code() throws IOException {
+          encoder.encode(inputs, outputs, context);
+        }
+
+        @Override
+        public long getCodedBytes() {
+          return codedBytes;
+        }
+      };
+    }
+
+    final ByteBuffer[] bufferInputs = toBuffers(inputs, buffer);
+    final ByteBuffer[] bufferOutputs = toBuffers(outputs, buffer);
+    return new CodingTask() {
+      @Override
+      public void code() throws IOException {
+        rewind(bufferInputs);
+        encoder.encode(bufferInputs, bufferOutputs);
+      }
+
+      @Override
+      public long getCodedBytes() {
+        return codedBytes;
+      }
+    };
+  }
+
+  /**
+   * Decode with units [0, erasures) lost. A single erasure is repaired from
+   * all the other units, so the MSR decoders take their repair path; more
+   * erasures are decoded from exactly numDataUnits units.
+   */
+  public static CodingTask newDecodeTask(String codec, int numDataUnits,
+      int numParityUnits, int cellSize, String buffer, int erasures)
+      throws IOException {
+    if (erasures < 1 || erasures > numParityUnits) {
+      throw new IllegalArgumentException("Can not decode " + erasures +
+          " erasures with " + numParityUnits + " parity units");
+    }
+    int numAllUnits = numDataUnits + numParityUnits;
+    ErasureCoderOptions coderOptions =
+        new ErasureCoderOptions(numDataUnits, numParityUnits);
+    final RawErasureDecoder decoder =
+        CoderRegistry.createDecoder(codec, coderOptions);
+    final int[] erasedIndexes = new int[erasures];
+    for (int i = 0; i < erasures; i++) {
+      erasedIndexes[i] = i;
+    }
+
+    // Encode a stripe, then drop what the decoder should not read
+    int l = getSubPacketCount(codec, numDataUnits, numParityUnits);
+    Random random = new Random(cellSize);
+    byte[][] data = newArrays(numDataUnits * l, cellSize / l, random);
+    byte[][] parity = newArrays(numParityUnits * l, cellSize / l, null);
+    CoderRegistry.createEncoder(codec, coderOptions).encode(data, parity);
+    byte[][] stripe = new byte[numAllUnits * l][];
+    System.arraycopy(data, 0, stripe, 0, data.length);
+    System.arraycopy(parity, 0, stripe, data.length, parity.length);
+
+    final byte[][] inputs = new byte[numAllUnits * l][];
+    if (CoderRegistry.MSR_RAW_CODEC.equals(codec)) {
+      int[][] format = MSRRawDecoder.searchData(erasedIndexes, numAllUnits,
+          numDataUnits);
+      for (int i = 0; i < numAllUnits; i++) {
+        for (int j = 0; j < l; j++) {
+          if (format[i][j] == 1) {
+            inputs[i * l + j] = stripe[i * l + j];
+          }
+        }
+      }
+    } else {
+      int lastValid = erasures == 1 ? numAllUnits : numDataUnits + erasures;
+      for (int i = erasures; i < lastValid; i++) {
+        inputs[i] = stripe[i];
+      }
+    }
+    final byte[][] outputs = newArrays(erasures * l, cellSize / l, null);
+    final long codedBytes = (long) erasures * cellSize;
+
+    if (CodingTask.BUFFER_ARRAY.equals(buffer)) {
+      return new CodingTask() {
+        @Override
+        public void code() throws IOException {
+          decoder.decode(inputs, erasedIndexes, outputs);
+        }
+
+        @Override
+        public long getCodedBytes() {
+          return codedBytes;
+        }
+      };
+    }
+    if (CodingTask.BUFFER_ARRAY_CONTEXT.equals(buffer)) {
+      final CodingContext context = decoder.createContext();
+      return new CodingTask() {
+        @Override
+        public void code() throws IOException {
+          decoder.decode(inputs, erasedIndexes, outputs, context);
+        }
+
+        @Override
+        public long getCodedBytes() {
+          return codedBytes;
+        }
+      };
+    }
+
+    final ByteBuffer[] bufferInputs = toBuffers(inputs, buffer);
+    final ByteBuffer[] bufferOutputs = toBuffers(outputs, buffer);
+    return new CodingTask() {
+      @Override
+      public void code() throws IOException {
+        rewind(bufferInputs);
+        decoder.decode(bufferInputs, erasedIndexes, bufferOutputs);
+      }
+
+      @Override
+      public long getCodedBytes() {
+        return codedBytes;
+      }
+    };
+  }
+
+  /**
+   * @return units per cell the coder takes, l for MSRRaw and 1 otherwise
+   */
+  private static int getSubPacketCount(String codec, int numDataUnits,
+      int numParityUnits) {
+    if (!CoderRegistry.MSR_RAW_CODEC.equals(codec)) {
+      return 1;
+    }
+    return CoderRegistry.getMSRTables(numDataUnits, numParityUnits).l;
+  }
+
+  private static byte[][] newArrays(int num, int len, Random random) {
+    byte[][] arrays = new byte[num][len];
+    if (random != null) {
+      for (byte[] array : arrays) {
+        random.nextBytes(array);
+      }
+    }
+    return arrays;
+  }
+
+  private static ByteBuffer[] toBuffers(byte[][] arrays, String buffer) {
+    boolean direct = CodingTask.BUFFER_DIRECT.equals(buffer);
+    if (!direct && !CodingTask.BUFFER_HEAP.equals(buffer)) {
+      throw new IllegalArgumentException("Unknown buffer type " + buffer);
+    }
+    ByteBuffer[] buffers = new ByteBuffer[arrays.length];
+    for (int i = 0; i < arrays.length; i++) {
+      if (arrays[i] == null) {
+        continue;
+      }
+      buffers[i] = direct ? ByteBuffer.allocateDirect(arrays[i].length) :
+          ByteBuffer.allocate(arrays[i].length);
+      buffers[i].put(arrays[i]);
+      buffers[i].flip();
+    }
+    return buffers;
+  }
+
+  /**
+   * Make the inputs ready for another call, the coders consume them.
+   */
+  private static void rewind(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (buffer != null) {
+        buffer.clear();
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatFactory;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import util.RSUtil;
+
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Runs EncodeBenchmark and DecodeBenchmark over every raw coder, schema,
+ * buffer type and number of erasures a schema allows, and writes all the
+ * results into one JSON file so runs can be diffed against each other.
+ *
+ * The combinations JMH can not filter by itself (1..r erasures, schemas the
+ * MSR coders do not support) are enumerated here; cellSize and kernel are
+ * left to the @Param lists of the benchmarks. Arguments are passed on to
+ * JMH, e.g. "-p cellSize=65536 -p kernel=vector -f 1".
+ *
+ * BUFFER_ARRAY_CONTEXT reuses one CodingContext across calls; with
+ * "-prof gc" its gc.alloc.rate.norm is the garbage a steady-state call of
+ * the coder leaves, 0 for the RS coders on the calling thread.
+ */
+public final class CoderBenchmarks {
+  /**
+   * Schemas to run, as "k,r" pairs separated by ';'.
+   */
+  public static final String SCHEMAS_KEY = "bench.schemas";
+  /**
+   * Comma separated codecs to run, as named by CoderRegistry.
+   */
+  public static final String CODECS_KEY = "bench.codecs";
+  /**
+   * File the JSON results are written to.
+   */
+  public static final String RESULT_KEY = "bench.result";
+
+  private static final String[] BUFFER_TYPES = {CodingTask.BUFFER_ARRAY,
+      CodingTask.BUFFER_ARRAY_CONTEXT, CodingTask.BUFFER_HEAP,
+      CodingTask.BUFFER_DIRECT};
+
+  private static final String DEFAULT_SCHEMAS = "4,2;6,2;4,4";
+  private static final String DEFAULT_CODECS = CodingTask.RS_CODEC + "," +
+      CodingTask.MSR_CODEC + "," + CodingTask.MSR_RAW_CODEC;
+  private static final String DEFAULT_RESULT = "jmh-result.json";
+  private static final String TASKS_CLASS = "CodingTasks";
+
+  private CoderBenchmarks() {
+    // No called
+  }
+
+  /**
+   * Bytes of user data coded, reported next to the call rate as a rate of
+   * its own.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class CodedBytes {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      bytes = 0;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    CommandLineOptions cmdOptions = new CommandLineOptions(args);
+    String[] codecs = System.getProperty(CODECS_KEY, DEFAULT_CODECS)
+        .split(",");
+    List<RunResult> results = new ArrayList<>();
+
+    for (String schema : System.getProperty(SCHEMAS_KEY, DEFAULT_SCHEMAS)
+        .split(";")) {
+      schema = schema.trim();
+      int[] units = parseSchema(schema);
+      for (String codec : codecs) {
+        codec = codec.trim();
+        if (!isSupported(codec, units[0], units[1])) {
+          System.out.println("Skip " + codec + " for schema " + schema);
+          continue;
+        }
+        for (String buffer : BUFFER_TYPES) {
+          results.addAll(run(cmdOptions, EncodeBenchmark.class, codec,
+              schema, buffer, 0));
+          for (int erasures = 1; erasures <= units[1]; erasures++) {
+            results.addAll(run(cmdOptions, DecodeBenchmark.class, codec,
+                schema, buffer, erasures));
+          }
+        }
+      }
+    }
+
+    String resultFile = System.getProperty(RESULT_KEY, DEFAULT_RESULT);
+    try (PrintStream out = new PrintStream(
+        new FileOutputStream(resultFile), true, "UTF-8")) {
+      ResultFormatFactory.getInstance(ResultFormatType.JSON, out)
+          .writeOut(results);
+    }
+    System.out.println(results.size() + " results written to " + resultFile);
+  }
+
+  private static Collection<RunResult> run(CommandLineOptions cmdOptions,
+      Class<?> benchmark, String codec, String schema, String buffer,
+      int erasures) throws Exception {
+    ChainedOptionsBuilder builder = new OptionsBuilder()
+        .parent(cmdOptions)
+        .include("^" + benchmark.getName() + "\\.")
+        .param("codec", codec)
+        .param("schema", schema)
+        .param("buffer", buffer);
+    if (erasures > 0) {
+      builder.param("erasures", String.valueOf(erasures));
+    }
+    return new Runner(builder.build()).run();
+  }
+
+  /**
+   * Ask CodingTasks, which sees the coders and their constraints.
+   */
+  static boolean isSupported(String codec, int k, int r) throws Exception {
+    return (Boolean) callTasks("isSupported",
+        new Class<?>[] {String.class, int.class, int.class}, codec, k, r);
+  }
+
+
+  static int[] parseSchema(String schema) {
+    String[] units = schema.split(",");
+    if (units.length != 2) {
+      throw new IllegalArgumentException("Invalid schema " + schema);
+    }
+    return new int[] {Integer.parseInt(units[0].trim()),
+        Integer.parseInt(units[1].trim())};
+  }
+
+  /**
+   * Select the RSUtil kernel of this benchmark JVM. It must be called before
+   * any coder is created, RSUtil picks its kernel once.
+   */
+  static void selectKernel(String kernel) {
+    System.setProperty(RSUtil.KERNEL_KEY, kernel);
+    String kernelName = RSUtil.getKernelName();
+    if (!RSUtil.KERNEL_AUTO.equals(kernel) && !kernelName.startsWith(kernel)) {
+      throw new IllegalStateException("Kernel " + kernel +
+          " is not available, got " + kernelName);
+    }
+  }
+
+  /**
+   * Call one of the factory methods of CodingTasks, which is in the default
+   * package and so only reachable by reflection from here.
+   */
+  static CodingTask newTask(String method, Class<?>[] parameterTypes,
+      Object... args) throws Exception {
+    return (CodingTask) callTasks(method, parameterTypes, args);
+  }
+
+  private static Object callTasks(String method, Class<?>[] parameterTypes,
+      Object... args) throws Exception {
+    Method factory = Class.forName(TASKS_CLASS)
+        .getMethod(method, parameterTypes);
+    try {
+      return factory.invoke(null, args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof Exception) {
+        throw (Exception) e.getCause();
+      }
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package benchmark;
+
+import java.io.IOException;
+
+/**
+ * One coder call on a prepared stripe. The raw coders live in the default
+ * package, which JMH benchmarks can not refer to, so CodingTasks builds these
+ * on that side and the benchmarks only see this interface.
+ */
+public interface CodingTask {
+  /**
+   * The codecs, as named by CoderRegistry. Annotations need them as
+   * constants on this side; CodingTasks.isSupported refuses any that no
+   * longer matches.
+   */
+  String RS_CODEC = "rs";
+  String MSR_CODEC = "msr";
+  String MSR_RAW_CODEC = "msr-raw";
+
+  /**
+   * The buffers a task codes: byte arrays, byte arrays with one
+   * CodingContext for all calls, heap or direct ByteBuffers.
+   */
+  String BUFFER_ARRAY = "array";
+  String BUFFER_ARRAY_CONTEXT = "array-context";
+  String BUFFER_HEAP = "heap";
+  String BUFFER_DIRECT = "direct";
+
+  /**
+   * Encode or decode the stripe once.
+   */
+  void code() throws IOException;
+
+  /**
+   * @return bytes of user data one code() call covers: the data units for
+   * encode, the recovered units for decode
+   */
+  long getCodedBytes();
+}
@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decode throughput of one raw decoder with the first erasures units lost.
+ * See CodingTasks.newDecodeTask for which units are read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class DecodeBenchmark {
+  @Param({CodingTask.RS_CODEC, CodingTask.MSR_CODEC,
+      CodingTask.MSR_RAW_CODEC})
+  public String codec;
+
+  @Param({"4,2"})
+  public String schema;
+
+  @Param({"4096", "65536", "1048576", "4194304"})
+  public int cellSize;
+
+  @Param({CodingTask.BUFFER_ARRAY})
+  public String buffer;
+
+  @Param({"vector", "table", "nibble"})
+  public String kernel;
+
+  @Param({"1"})
+  public int erasures;
+
+  private CodingTask task;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    CoderBenchmarks.selectKernel(kernel);
+    int[] units = CoderBenchmarks.parseSchema(schema);
+    task = CoderBenchmarks.newTask("newDecodeTask",
+        new Class<?>[] {String.class, int.class, int.class, int.class,
+            String.class, int.class},
+        codec, units[0], units[1], cellSize, buffer, erasures);
+  }
+
+  @Benchmark
+  public void decode(CoderBenchmarks.CodedBytes codedBytes)
+      throws IOException {
+    task.code();
+    codedBytes.bytes += task.getCodedBytes();
+  }
+}
@@ -0,0 +1,35 @@
+/**********************************************************************
+  Entry point of the Java coders into ISA-L, bound through the foreign
+  function API by util.ISALKernel. See the Makefile for how to build it.
+**********************************************************************/
+
+#include <erasure_code.h>
+
+#ifdef EC_JAVA_BASE
+#define ec_encode_data_update ec_encode_data_update_base
+#endif
+
+/*
+ * XOR the products of the k inputs and the coefficients in gftbls into the
+ * rows outputs, over num_slices slices of len bytes that start stride bytes
+ * apart, like RSUtil.encodeDataStrided. Unlike ec_encode_data the outputs
+ * are added to, not overwritten, so gftbls is the same as ec_init_tables
+ * and RSUtil.initTables build.
+ */
+void ec_java_encode_strided(int len, int num_slices, int stride, int k,
+			    int rows, unsigned char *gftbls, unsigned char **data,
+			    unsigned char **coding)
+{
+	unsigned char *slice_coding[rows];
+	long offset;
+	int t, i;
+
+	for (t = 0; t < num_slices; t++) {
+		offset = (long)t * stride;
+		for (i = 0; i < rows; i++)
+			slice_coding[i] = coding[i] + offset;
+		for (i = 0; i < k; i++)
+			ec_encode_data_update(len, k, rows, i, gftbls,
+					      data[i] + offset, slice_coding);
+	}
+}
@@ -29,6 +29,9 @@ class ByteArrayDecodingState extends DecodingState {
   int[] erasedIndexes;
   byte[][] outputs;
   int[] outputOffsets;
+  // scratch of the decoder, see ensureReadInputs()
+  byte[][] readInputs;
+  int[] readInputOffsets;
 
   ByteArrayDecodingState(RawErasureDecoder decoder, byte[][] inputs,
                          int[] erasedIndexes, byte[][] outputs) {
@@ -63,6 +66,62 @@ class ByteArrayDecodingState extends DecodingState {
     this.outputOffsets = outputOffsets;
   }
 
+  /**
+   * A state to be reset() before use, with room for numInputs inputs and
+   * numOutputs outputs at offset 0.
+   */
+  ByteArrayDecodingState(RawErasureDecoder decoder, int numInputs,
+                         int numOutputs) {
+    this.decoder = decoder;
+    this.inputOffsets = new int[numInputs]; // ALL ZERO
+    this.outputOffsets = new int[numOutputs]; // ALL ZERO
+  }
+
+  /**
+   * Point the state at other buffers, all decoded from offset 0. The offset
+   * arrays and the scratch are kept unless the number of buffers changes.
+   */
+  void reset(byte[][] inputs, int[] erasedIndexes, byte[][] outputs) {
+    byte[] validInput = CoderUtil.findFirstValidInput(inputs);
+    this.decodeLength = validInput.length;
+    this.inputs = inputs;
+    this.erasedIndexes = erasedIndexes;
+    this.outputs = outputs;
+    if (inputOffsets.length != inputs.length) {
+      this.inputOffsets = new int[inputs.length];
+    }
+    if (outputOffsets.length != outputs.length) {
+      this.outputOffsets = new int[outputs.length];
+    }
+  }
+
+  /**
+   * Give readInputs and readInputOffsets room for the numInputs inputs a
+   * decoder gathers, kept with the state so a reused state has them already.
+   */
+  void ensureReadInputs(int numInputs) {
+    if (readInputs == null || readInputs.length != numInputs) {
+      readInputs = new byte[numInputs][];
+      readInputOffsets = new int[numInputs];
+    }
+  }
+
+  /**
+   * Get the state for the range [start, start + len) of every unit, sharing
+   * the buffers. Erased inputs stay null.
+   */
+  ByteArrayDecodingState subRange(int start, int len) {
+    int[] newInputOffsets = new int[inputs.length];
+    int[] newOutputOffsets = new int[outputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      newInputOffsets[i] = inputOffsets[i] + start;
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      newOutputOffsets[i] = outputOffsets[i] + start;
+    }
+    return new ByteArrayDecodingState(decoder, len, erasedIndexes, inputs,
+        newInputOffsets, outputs, newOutputOffsets);
+  }
 
   /**
    * Check and ensure the buffers are of the desired length.
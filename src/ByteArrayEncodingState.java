@@ -58,6 +58,51 @@ class ByteArrayEncodingState extends EncodingState {
     this.outputOffsets = outputOffsets;
   }
 
+  /**
+   * A state to be reset() before use, with room for numInputs inputs and
+   * numOutputs outputs at offset 0.
+   */
+  ByteArrayEncodingState(RawErasureEncoder encoder, int numInputs,
+                         int numOutputs) {
+    this.encoder = encoder;
+    this.inputOffsets = new int[numInputs]; // ALL ZERO
+    this.outputOffsets = new int[numOutputs]; // ALL ZERO
+  }
+
+  /**
+   * Point the state at other buffers, all coded from offset 0. The offset
+   * arrays are kept unless the number of buffers changes.
+   */
+  void reset(byte[][] inputs, byte[][] outputs) {
+    byte[] validInput = CoderUtil.findFirstValidInput(inputs);
+    this.encodeLength = validInput.length;
+    this.inputs = inputs;
+    this.outputs = outputs;
+    if (inputOffsets.length != inputs.length) {
+      this.inputOffsets = new int[inputs.length];
+    }
+    if (outputOffsets.length != outputs.length) {
+      this.outputOffsets = new int[outputs.length];
+    }
+  }
+
+  /**
+   * Get the state for the range [start, start + len) of every unit, sharing
+   * the buffers.
+   */
+  ByteArrayEncodingState subRange(int start, int len) {
+    int[] newInputOffsets = new int[inputs.length];
+    int[] newOutputOffsets = new int[outputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      newInputOffsets[i] = inputOffsets[i] + start;
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      newOutputOffsets[i] = outputOffsets[i] + start;
+    }
+    return new ByteArrayEncodingState(encoder, len, inputs, newInputOffsets,
+        outputs, newOutputOffsets);
+  }
+
   /**
    * Convert to a ByteBufferEncodingState when it's backed by on-heap arrays.
    */
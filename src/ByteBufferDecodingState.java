@@ -39,7 +39,7 @@ class ByteBufferDecodingState extends DecodingState {
     this.decodeLength = validInput.remaining();
     this.usingDirectBuffer = validInput.isDirect();
 
-    checkParameters(inputs, erasedIndexes, outputs);
+    // checkParameters(inputs, erasedIndexes, outputs);
     checkInputBuffers(inputs);
     checkOutputBuffers(outputs);
   }
@@ -37,7 +37,7 @@ class ByteBufferEncodingState extends EncodingState {
     this.inputs = inputs;
     this.outputs = outputs;
 
-    checkParameters(inputs, outputs);
+    // checkParameters(inputs, outputs);
     checkBuffers(inputs);
     checkBuffers(outputs);
   }
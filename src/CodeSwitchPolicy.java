@@ -0,0 +1,297 @@
+import com.google.common.base.Preconditions;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decides per block whether its stripe is coded with RS or with MSR, and
+ * switches blocks between the two. For every block it keeps the reads,
+ * writes and failures seen, whether the block is hot and how likely it is
+ * to fail, in primitive arrays indexed by block number. A Rule makes the
+ * decision from them.
+ *
+ * A block switches either when it is rewritten anyway, by update(block,
+ * true) before encoding the new stripe with the code isMSR(block) returns,
+ * or in the background, by update(block, false) handing the block to the
+ * Transcoder; the block keeps its old code until the Transcoder is done. A
+ * rewrite supersedes a transcode of the block handed over before: one not
+ * started yet is dropped, and update(block, true) waits for one running, so
+ * the two never write the stripe at once, and the block keeps the code of
+ * the rewrite.
+ */
+public class CodeSwitchPolicy implements Closeable {
+
+    /**
+     * Decides the code of a block.
+     */
+    public interface Rule {
+        /**
+         * @return whether block should be coded with MSR
+         */
+        boolean useMSR(CodeSwitchPolicy policy, int block);
+    }
+
+    /**
+     * Re-encodes the stripe of a block with the other code, e.g.
+     * StripeTranscoder.
+     */
+    public interface Transcoder {
+        void transcode(int block, boolean toMSR) throws Exception;
+    }
+
+    /**
+     * The rule of the trace experiments: hot blocks read more often than
+     * written, and failing more than 5% of the time, move to MSR and stay.
+     */
+    public static final Rule HOT_READ_MOSTLY = new Rule() {
+        @Override
+        public boolean useMSR(CodeSwitchPolicy policy, int block) {
+            if (policy.isMSR(block)) {
+                return true;
+            }
+            return policy.isHot(block) &&
+                    policy.getReads(block) > policy.getWrites(block) &&
+                    policy.getFailureRate(block) > 0.05;
+        }
+    };
+
+    /**
+     * Reads of a block to record before its failures per read recorded
+     * stand in for the failure probability loaded.
+     */
+    public static final int MIN_RECORDED_READS = 20;
+
+    private final Rule rule;
+    private final int[] reads;
+    private final int[] writes;
+    private final int[] failures;
+    private final int[] recordedReads;
+    private final double[] failureProbability;
+    // bumped by every rewrite, a transcode of an older one is stale
+    private final int[] generations;
+    private final BitSet hot;
+    private final BitSet msr;
+    private final BitSet transcoding;
+    private final BitSet running;
+    private Transcoder transcoder;
+    private ExecutorService transcodeThread;
+
+    public CodeSwitchPolicy(int numBlocks, Rule rule) {
+        Preconditions.checkArgument(numBlocks > 0, "Invalid numBlocks: %s",
+                numBlocks);
+        this.rule = rule;
+        this.reads = new int[numBlocks];
+        this.writes = new int[numBlocks];
+        this.failures = new int[numBlocks];
+        this.recordedReads = new int[numBlocks];
+        this.failureProbability = new double[numBlocks];
+        this.generations = new int[numBlocks];
+        this.hot = new BitSet(numBlocks);
+        this.msr = new BitSet(numBlocks);
+        this.transcoding = new BitSet(numBlocks);
+        this.running = new BitSet(numBlocks);
+    }
+
+    /**
+     * Load the statistics of blocks from a file of lines
+     * "block,isHot,reads,writes,failureProbability", as written for the
+     * traces. The blocks listed are set to RS, with no failures recorded.
+     */
+    public synchronized void load(String path) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] arrs = line.split(",");
+                int block = Integer.parseInt(arrs[0]);
+                hot.set(block, Integer.parseInt(arrs[1]) == 1);
+                reads[block] = Integer.parseInt(arrs[2]);
+                writes[block] = Integer.parseInt(arrs[3]);
+                failureProbability[block] = Double.parseDouble(arrs[4]);
+                failures[block] = 0;
+                recordedReads[block] = 0;
+                msr.clear(block);
+            }
+        } finally {
+            br.close();
+        }
+    }
+
+    /**
+     * Transcode blocks in the background with transcoder, one at a time.
+     */
+    public synchronized void setTranscoder(Transcoder transcoder) {
+        this.transcoder = transcoder;
+        if (transcodeThread == null) {
+            transcodeThread = Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "code-switch-transcoder");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        }
+    }
+
+    public synchronized void recordRead(int block) {
+        reads[block]++;
+        recordedReads[block]++;
+    }
+
+    public synchronized void recordWrite(int block) {
+        writes[block]++;
+    }
+
+    /**
+     * Record that a read of block, recorded too, found it failed.
+     */
+    public synchronized void recordFailure(int block) {
+        failures[block]++;
+    }
+
+    public synchronized int getReads(int block) {
+        return reads[block];
+    }
+
+    public synchronized int getWrites(int block) {
+        return writes[block];
+    }
+
+    public synchronized int getFailures(int block) {
+        return failures[block];
+    }
+
+    public synchronized double getFailureProbability(int block) {
+        return failureProbability[block];
+    }
+
+    /**
+     * @return failures per read recorded once MIN_RECORDED_READS reads are,
+     * the failure probability loaded until then
+     */
+    public synchronized double getFailureRate(int block) {
+        if (recordedReads[block] < MIN_RECORDED_READS) {
+            return failureProbability[block];
+        }
+        return (double) failures[block] / recordedReads[block];
+    }
+
+    public synchronized boolean isHot(int block) {
+        return hot.get(block);
+    }
+
+    public synchronized void setHot(int block, boolean isHot) {
+        hot.set(block, isHot);
+    }
+
+    /**
+     * @return whether the stripe of block is coded with MSR now
+     */
+    public synchronized boolean isMSR(int block) {
+        return msr.get(block);
+    }
+
+    /**
+     * @return whether block is waiting for or being transcoded
+     */
+    public synchronized boolean isTranscoding(int block) {
+        return transcoding.get(block);
+    }
+
+    /**
+     * Apply the rule to block.
+     * @param rewrite the caller is about to write the whole stripe of the
+     *                block, so it switches right away; otherwise the switch
+     *                goes to the Transcoder, if any
+     * @return the code the stripe is to be written with now, MSR if true
+     */
+    public synchronized boolean update(final int block, boolean rewrite) {
+        if (rewrite) {
+            generations[block]++;
+            awaitRunning(block);
+        }
+        final boolean toMSR = rule.useMSR(this, block);
+        if (toMSR == msr.get(block)) {
+            return toMSR;
+        }
+        if (rewrite) {
+            msr.set(block, toMSR);
+        } else if (transcoder != null && !transcoding.get(block)) {
+            transcoding.set(block);
+            final Transcoder current = transcoder;
+            final int generation = generations[block];
+            transcodeThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    transcode(current, block, toMSR, generation);
+                }
+            });
+        }
+        return msr.get(block);
+    }
+
+    /**
+     * Wait for a transcode of block running now to finish.
+     */
+    private void awaitRunning(int block) {
+        boolean interrupted = false;
+        while (running.get(block)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // the caller is about to write the stripe, it must not yet
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void transcode(Transcoder current, int block, boolean toMSR,
+                           int generation) {
+        synchronized (this) {
+            if (generations[block] != generation) {
+                // rewritten since it was handed over
+                transcoding.clear(block);
+                return;
+            }
+            running.set(block);
+        }
+        boolean done = false;
+        try {
+            current.transcode(block, toMSR);
+            done = true;
+        } catch (Exception e) {
+            System.out.println("Transcoding block " + block + " failed: " + e);
+        } finally {
+            synchronized (this) {
+                running.clear(block);
+                transcoding.clear(block);
+                // a rewrite waiting for it has the stripe from now on
+                if (done && generations[block] == generation) {
+                    msr.set(block, toMSR);
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stop the background transcoding once the blocks handed over are done.
+     */
+    @Override
+    public synchronized void close() {
+        if (transcodeThread != null) {
+            transcodeThread.shutdown();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import util.RSUtil;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates raw coders and keeps the tables they derive from their schema, so
+ * that those are computed once per (coder type, k, r, PCM) for the whole
+ * process rather than once per coder instance. The coder constructors go
+ * through here as well, so creating a coder is cheap once its schema has
+ * been seen, and warmUp() can pay for the common schemas at startup.
+ */
+public final class CoderRegistry {
+  public static final String RS_CODEC = "rs";
+  public static final String MSR_CODEC = "msr";
+  public static final String MSR_RAW_CODEC = "msr-raw";
+
+  /**
+   * Schemas prepared by warmUp(), as "k,r" pairs separated by ';'.
+   */
+  public static final String WARMUP_SCHEMAS_KEY = "coder.warmup.schemas";
+  private static final String DEFAULT_WARMUP_SCHEMAS = "4,2;6,3";
+
+  private static final ConcurrentMap<String, CoderTables> TABLES =
+      new ConcurrentHashMap<>();
+
+  private CoderRegistry() {
+    // No called
+  }
+
+  public static RawErasureEncoder createEncoder(String codec,
+      ErasureCoderOptions coderOptions) {
+    if (RS_CODEC.equals(codec)) {
+      return new RSRawEncoder(coderOptions);
+    } else if (MSR_CODEC.equals(codec)) {
+      return new MSRNewEncoder(coderOptions);
+    } else if (MSR_RAW_CODEC.equals(codec)) {
+      return new MSRRawEncoder(coderOptions);
+    }
+    throw new IllegalArgumentException("Unknown codec " + codec);
+  }
+
+  public static RawErasureDecoder createDecoder(String codec,
+      ErasureCoderOptions coderOptions) {
+    if (RS_CODEC.equals(codec)) {
+      return new RSRawDecoder(coderOptions);
+    } else if (MSR_CODEC.equals(codec)) {
+      return new MSRNewDecoder(coderOptions);
+    } else if (MSR_RAW_CODEC.equals(codec)) {
+      return new MSRRawDecoder(coderOptions);
+    }
+    throw new IllegalArgumentException("Unknown codec " + codec);
+  }
+
+  /**
+   * Tables for the RS coders, Cauchy or PCM flavored.
+   */
+  static CoderTables getRSTables(int numDataUnits, int numParityUnits,
+      boolean usePCM) {
+    String key = RS_CODEC + "-" + numDataUnits + "-" + numParityUnits +
+        (usePCM ? "-pcm" : "");
+    CoderTables tables = TABLES.get(key);
+    if (tables == null) {
+      tables = CoderTables.buildRS(numDataUnits, numParityUnits, usePCM);
+      CoderTables cached = TABLES.putIfAbsent(key, tables);
+      if (cached != null) {
+        tables = cached;
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Tables for the MSR coders. MSRNew and MSRRaw use the same matrices, and
+   * PCM only changes how the decoders use them.
+   */
+  static CoderTables getMSRTables(int numDataUnits, int numParityUnits) {
+    String key = MSR_CODEC + "-" + numDataUnits + "-" + numParityUnits;
+    CoderTables tables = TABLES.get(key);
+    if (tables == null) {
+      tables = CoderTables.buildMSR(numDataUnits, numParityUnits);
+      CoderTables cached = TABLES.putIfAbsent(key, tables);
+      if (cached != null) {
+        tables = cached;
+      }
+    }
+    return tables;
+  }
+
+  /**
+   * Build the tables of every coder type for the given schema.
+   */
+  public static void warmUp(int numDataUnits, int numParityUnits) {
+    getRSTables(numDataUnits, numParityUnits, false);
+    getRSTables(numDataUnits, numParityUnits, true);
+    // shortened schemas are coded as their n' = n + virtual units
+    int numAllUnits = numDataUnits + numParityUnits;
+    if (numAllUnits + RSUtil.getMSRNumVirtualUnits(numAllUnits,
+        numDataUnits) < RSUtil.GF.getFieldSize()) {
+      getMSRTables(numDataUnits, numParityUnits);
+    }
+  }
+
+  /**
+   * Build the tables of the schemas listed in WARMUP_SCHEMAS_KEY.
+   */
+  public static void warmUp() {
+    String schemas = System.getProperty(WARMUP_SCHEMAS_KEY,
+        DEFAULT_WARMUP_SCHEMAS);
+    for (String schema : schemas.split(";")) {
+      String[] units = schema.trim().split(",");
+      if (units.length != 2) {
+        System.out.println("Invalid warm up schema " + schema);
+        continue;
+      }
+      warmUp(Integer.parseInt(units[0].trim()),
+          Integer.parseInt(units[1].trim()));
+    }
+  }
+
+  /**
+   * @return number of schemas with tables built
+   */
+  public static int size() {
+    return TABLES.size();
+  }
+
+  public static void clear() {
+    TABLES.clear();
+  }
+}
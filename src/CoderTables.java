@@ -0,0 +1,81 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import util.CodingSchedule;
+import util.RSUtil;
+
+/**
+ * The matrices and tables a coder derives from its schema alone. They are
+ * built once per schema by CoderRegistry and shared, read only, by every
+ * coder instance of that schema.
+ */
+final class CoderTables {
+  // sub-packetization, 1 for RS
+  final int l;
+  // RS: n x k encode (or PCM) matrix; MSR: n*l x k*l systematic encode matrix
+  final byte[] encodeMatrix;
+  // MSR: r*l x n*l parity check matrix, null for RS
+  final byte[] MSRMatrix;
+  // RS: encoder tables for the parity rows, null for MSR
+  final byte[] gfTables;
+  // MSR: sparse schedule of the parity rows, null for RS
+  final CodingSchedule schedule;
+
+  private CoderTables(int l, byte[] encodeMatrix, byte[] MSRMatrix,
+      byte[] gfTables, CodingSchedule schedule) {
+    this.l = l;
+    this.encodeMatrix = encodeMatrix;
+    this.MSRMatrix = MSRMatrix;
+    this.gfTables = gfTables;
+    this.schedule = schedule;
+  }
+
+  static CoderTables buildRS(int numDataUnits, int numParityUnits,
+      boolean usePCM) {
+    int numAllUnits = numDataUnits + numParityUnits;
+    byte[] encodeMatrix = new byte[numAllUnits * numDataUnits];
+    if (usePCM) {
+      RSUtil.genCauchyMatrixPCM(encodeMatrix, numAllUnits, numDataUnits);
+    } else {
+      RSUtil.genCauchyMatrix(encodeMatrix, numAllUnits, numDataUnits);
+    }
+    byte[] gfTables = null;
+    if (!usePCM) {
+      gfTables = new byte[numAllUnits * numDataUnits * 32];
+      RSUtil.initTables(numDataUnits, numParityUnits, encodeMatrix,
+          numDataUnits * numDataUnits, gfTables);
+    }
+    return new CoderTables(1, encodeMatrix, null, gfTables, null);
+  }
+
+  static CoderTables buildMSR(int numDataUnits, int numParityUnits) {
+    int numAllUnits = numDataUnits + numParityUnits;
+    // shortened when numParityUnits does not divide numAllUnits
+    int l = RSUtil.getMSRSubPackets(numAllUnits, numDataUnits);
+    byte[] MSRMatrix = new byte[numParityUnits * numAllUnits * l * l];
+    byte[] encodeMatrix = new byte[numAllUnits * numDataUnits * l * l];
+    RSUtil.genMSRMatrix(MSRMatrix, numAllUnits, numDataUnits);
+    RSUtil.genMSREncodeMatrix(MSRMatrix, encodeMatrix, numAllUnits,
+        numDataUnits);
+    // only the non-zero coefficients of the parity rows are kept
+    CodingSchedule schedule = new CodingSchedule(encodeMatrix,
+        numDataUnits * l * numDataUnits * l,
+        numDataUnits * l, numParityUnits * l);
+    return new CoderTables(l, encodeMatrix, MSRMatrix, null, schedule);
+  }
+}
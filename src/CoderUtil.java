@@ -16,6 +16,8 @@
  * limitations under the License.
  */
 
+import util.RSUtil;
+
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -164,4 +166,52 @@ public final class CoderUtil {
 
     return Arrays.copyOf(validIndexes, idx);
   }
+
+  /**
+   * Tell if validIndexes are exactly the indexes of the valid inputs, what
+   * getValidIndexes() would return, without making the array.
+   * @param inputs decoding input buffers
+   * @param validIndexes indexes to compare with, may be null
+   */
+  static <T> boolean hasValidIndexes(T[] inputs, int[] validIndexes) {
+    if (validIndexes == null) {
+      return false;
+    }
+    int idx = 0;
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputs[i] != null) {
+        if (idx == validIndexes.length || validIndexes[idx] != i) {
+          return false;
+        }
+        idx++;
+      }
+    }
+
+    return idx == validIndexes.length;
+  }
+
+  /**
+   * Set output to the XOR of the units of indexes, in cache sized tiles so
+   * that the output stays in cache while the inputs stream through.
+   * @param units buffers by unit index
+   * @param offsets offsets by unit index
+   * @param indexes the units to XOR, at least one
+   */
+  static void xorUnits(byte[][] units, int[] offsets, int[] indexes,
+      int dataLen, byte[] output, int outputOffset) {
+    int tileSize = RSUtil.getTileSize(indexes.length, 1);
+    for (int pos = 0; pos < dataLen; pos += tileSize) {
+      int len = Math.min(tileSize, dataLen - pos);
+      int oPos = outputOffset + pos;
+      System.arraycopy(units[indexes[0]], offsets[indexes[0]] + pos,
+          output, oPos, len);
+      for (int j = 1; j < indexes.length; j++) {
+        byte[] input = units[indexes[j]];
+        int iPos = offsets[indexes[j]] + pos;
+        for (int i = 0; i < len; i++) {
+          output[oPos + i] ^= input[iPos + i];
+        }
+      }
+    }
+  }
 }
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The coding state of one coder, kept by a caller that codes stripe after
+ * stripe and handed back to every encode() or decode() call. The state and
+ * its offset arrays are reset in place instead of made anew for each call,
+ * and the decoder keeps its per call scratch in it, so that in the steady
+ * state a call on the calling thread allocates nothing.
+ *
+ * Get one from RawErasureEncoder.createContext() or
+ * RawErasureDecoder.createContext(). A context only works with the coder that
+ * made it, and only one thread may use it at a time. The buffers of the last
+ * call stay referenced until the next one.
+ */
+public final class CodingContext {
+  final ByteArrayEncodingState encodingState;
+  final ByteArrayDecodingState decodingState;
+
+  CodingContext(RawErasureEncoder encoder) {
+    this.encodingState = new ByteArrayEncodingState(encoder,
+        encoder.getNumDataUnits(), encoder.getNumParityUnits());
+    this.decodingState = null;
+  }
+
+  CodingContext(RawErasureDecoder decoder) {
+    this.encodingState = null;
+    this.decodingState = new ByteArrayDecodingState(decoder,
+        decoder.getNumDataUnits() + decoder.getNumParityUnits(),
+        decoder.getNumParityUnits());
+  }
+
+  /**
+   * @return the encoding state of encoder, reset to the buffers
+   */
+  ByteArrayEncodingState resetEncodingState(RawErasureEncoder encoder,
+      byte[][] inputs, byte[][] outputs) {
+    if (encodingState == null || encodingState.encoder != encoder) {
+      throw new IllegalArgumentException(
+          "Context not created by this encoder");
+    }
+    encodingState.reset(inputs, outputs);
+    return encodingState;
+  }
+
+  /**
+   * @return the decoding state of decoder, reset to the buffers
+   */
+  ByteArrayDecodingState resetDecodingState(RawErasureDecoder decoder,
+      byte[][] inputs, int[] erasedIndexes, byte[][] outputs) {
+    if (decodingState == null || decodingState.decoder != decoder) {
+      throw new IllegalArgumentException(
+          "Context not created by this decoder");
+    }
+    decodingState.reset(inputs, erasedIndexes, outputs);
+    return decodingState;
+  }
+}
@@ -1,17 +1,12 @@
 import java.io.IOException;
-import java.net.URI;
 import java.util.Arrays;
 import java.util.Random;
 import java.util.Iterator;
 import java.util.Map.Entry;
 
-import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.*;
-
 
 public class GenHDFSData {
-    private FileSystem fs = null;
-    private Configuration conf = null;
+    private StripeStore store;
     private int cellSize;
     private int nodeSize;
     private int nodeLen;
@@ -19,9 +14,7 @@ public class GenHDFSData {
     public String prefix;
 
     public GenHDFSData(int cellSize, int nodeSize) throws Exception{
-        conf = new Configuration();
-        conf.set("fs.default.name", "hdfs://192.168.1.105:9000");
-        fs = FileSystem.get(new URI("hdfs://192.168.1.105:9000"),conf,"root");
+        store = StripeStores.getDefault();
         randomGenerator = new Random(10);
         this.nodeSize = nodeSize;
         this.cellSize = cellSize;
@@ -36,20 +29,21 @@ public class GenHDFSData {
     }
 
     public void createFile(String pathName) throws Exception {
-        FSDataOutputStream out = fs.create(new Path(pathName));
         byte[] inputData = genRanData();
-        out.write(inputData);
-        out.close();
+        store.write(pathName, inputData, 0, inputData.length);
     }
 
     public void deleteAll(String pathName) throws Exception {
-        fs.delete(new Path(pathName), true);
+        store.delete(pathName);
     }
 
     public void createFile(String pathName, byte[] inputData) throws Exception {
-        FSDataOutputStream out = fs.create(new Path(pathName));
-        out.write(inputData);
-        out.close();
+        store.write(pathName, inputData, 0, inputData.length);
+    }
+
+    public void createFile(String pathName, byte[] inputData, int offset, int len)
+            throws Exception {
+        store.write(pathName, inputData, offset, len);
     }
 
     public void fillFile(int k, int l) throws Exception {
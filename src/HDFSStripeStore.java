@@ -0,0 +1,88 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.*;
+
+/**
+ * Stores the files in HDFS.
+ */
+public class HDFSStripeStore implements StripeStore {
+    private final FileSystem fs;
+
+    public HDFSStripeStore(String uri, String user) throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("fs.default.name", uri);
+        try {
+            fs = FileSystem.get(URI.create(uri), conf, user);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted connecting to " + uri);
+        }
+    }
+
+    @Override
+    public void write(String path, byte[] data, int offset, int len)
+            throws IOException {
+        FSDataOutputStream out = fs.create(new Path(path));
+        try {
+            out.write(data, offset, len);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads straight into the returned array, sized by available(), which
+     * is what is left of the file for HDFS streams.
+     */
+    @Override
+    public byte[] read(String path) throws IOException {
+        FSDataInputStream in = fs.open(new Path(path));
+        try {
+            byte[] fileData = new byte[Math.max(in.available(), 4096)];
+            int len = 0;
+            while (true) {
+                if (len == fileData.length) {
+                    int next = in.read();
+                    if (next < 0) {
+                        break;
+                    }
+                    fileData = Arrays.copyOf(fileData, 2*fileData.length);
+                    fileData[len++] = (byte) next;
+                }
+                int n = in.read(fileData, len, fileData.length - len);
+                if (n < 0) {
+                    break;
+                }
+                len += n;
+            }
+            return len == fileData.length ? fileData : Arrays.copyOf(fileData, len);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void readFully(String path, long position, byte[] buf, int offset,
+                          int len) throws IOException {
+        FSDataInputStream in = fs.open(new Path(path));
+        try {
+            in.readFully(position, buf, offset, len);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        fs.delete(new Path(path), true);
+    }
+
+    @Override
+    public void close() throws IOException {
+        fs.close();
+    }
+}
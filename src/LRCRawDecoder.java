@@ -0,0 +1,339 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import util.DecodePlan;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A raw erasure decoder of the locally repairable code of LRCRawEncoder.
+ *
+ * An erased data unit or local parity whose group has every other unit as
+ * input is repaired from its group alone, by XOR. This is the only work for
+ * a single failure in a group, and the caller only has to read the units
+ * getLocalRepairUnits() returns. Whatever is left, erased data units and
+ * global parities and the data units missing from groups whose parity is
+ * erased, is decoded by the global decoder from k of the data units and
+ * global parities, and the erased local parities are then computed anew.
+ * A single global parity is repaired by the global code as well, with the
+ * MSR repair bandwidth when it is MSR. Patterns leaving fewer than k units
+ * to the global code are not recoverable here, even where a local parity
+ * would supply the missing equation.
+ *
+ * Inputs, erasedIndexes and outputs are as for any decoder, over the units
+ * laid out as by LRCRawEncoder. The plan handed to doDecode() is that of the
+ * global decoder, null when no unit goes to the global code.
+ */
+public class LRCRawDecoder extends RawErasureDecoder {
+  private final RawErasureDecoder globalDecoder;
+  private final int numGlobalParityUnits;
+  // data units of each group
+  private final int[][] localGroups;
+  // MSR repairs a single unit from all the others at lower bandwidth
+  private final boolean globalMSR;
+  // the global decoder solves for exactly k inputs and r erasures
+  private final boolean padGlobalErasures;
+
+  /**
+   * @param coderOptions k data units and r + numLocalGroups parity units
+   * @param globalCodec CoderRegistry.RS_CODEC or CoderRegistry.MSR_CODEC,
+   *                    the code of the r global parities
+   */
+  public LRCRawDecoder(ErasureCoderOptions coderOptions, String globalCodec,
+      int numLocalGroups) {
+    super(coderOptions);
+    this.numGlobalParityUnits = getNumParityUnits() - numLocalGroups;
+    LRCRawEncoder.checkSchema(globalCodec, getNumDataUnits(),
+        numGlobalParityUnits, numLocalGroups);
+    this.localGroups = LRCRawEncoder.getLocalGroups(getNumDataUnits(),
+        numLocalGroups);
+    // its ranges are those of this decoder, it must not split them again
+    this.globalDecoder = CoderRegistry.createDecoder(globalCodec,
+        new ErasureCoderOptions(getNumDataUnits(), numGlobalParityUnits,
+            allowChangeInputs(), allowVerboseDump(), isUsePCM()));
+    globalDecoder.setParallelPool(null);
+    this.globalMSR = CoderRegistry.MSR_CODEC.equals(globalCodec);
+    this.padGlobalErasures = globalMSR || isUsePCM();
+  }
+
+  public int getNumLocalGroups() {
+    return localGroups.length;
+  }
+
+  public int getNumGlobalParityUnits() {
+    return numGlobalParityUnits;
+  }
+
+  /**
+   * @return the units to read to repair unit alone from its group, or null
+   * for a global parity, which belongs to no group
+   */
+  public int[] getLocalRepairUnits(int unit) {
+    int group = getLocalGroup(unit);
+    if (group < 0) {
+      return null;
+    }
+    return getGroupUnits(group, unit);
+  }
+
+  private int getLocalGroup(int unit) {
+    int k = getNumDataUnits();
+    if (unit >= k + numGlobalParityUnits) {
+      return unit - k - numGlobalParityUnits;
+    }
+    if (unit >= k) {
+      return -1;
+    }
+    for (int g = 0; g < localGroups.length; g++) {
+      int[] group = localGroups[g];
+      if (unit <= group[group.length - 1]) {
+        return g;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the data units and the local parity of group, without skip
+   */
+  private int[] getGroupUnits(int group, int skip) {
+    int[] data = localGroups[group];
+    int parity = getNumDataUnits() + numGlobalParityUnits + group;
+    // skip is one of the data.length + 1 units of the group
+    int[] units = new int[data.length];
+    int idx = 0;
+    for (int i = 0; i < data.length; i++) {
+      if (data[i] != skip) {
+        units[idx++] = data[i];
+      }
+    }
+    if (parity != skip) {
+      units[idx] = parity;
+    }
+    return units;
+  }
+
+  @Override
+  protected int getRangeAlignment() {
+    return globalDecoder.getRangeAlignment();
+  }
+
+  /**
+   * How an erasure pattern is decoded. It only depends on the erased indexes
+   * and on which inputs are null, so prepareDecodePlan() and every range of
+   * doDecode() get the same one.
+   */
+  private static final class Repair {
+    // outputs repaired from their group before the global step
+    final int[] localOutputs;
+    // inputs of the global decoder, over the k + r global units
+    final boolean[] globalInputs;
+    // units decoded by the global decoder, ascending, empty if none
+    final int[] globalErased;
+    // outputs, all local parities, computed after the global step
+    final int[] parityOutputs;
+
+    Repair(int[] localOutputs, boolean[] globalInputs, int[] globalErased,
+        int[] parityOutputs) {
+      this.localOutputs = localOutputs;
+      this.globalInputs = globalInputs;
+      this.globalErased = globalErased;
+      this.parityOutputs = parityOutputs;
+    }
+  }
+
+  private Repair getRepair(byte[][] inputs, int[] erasedIndexes) {
+    int k = getNumDataUnits();
+    int numGlobalUnits = k + numGlobalParityUnits;
+    boolean[] available = new boolean[getNumAllUnits()];
+    for (int i = 0; i < inputs.length; i++) {
+      available[i] = inputs[i] != null;
+    }
+
+    int[] localOutputs = new int[erasedIndexes.length];
+    int[] parityOutputs = new int[erasedIndexes.length];
+    int numLocal = 0, numParity = 0;
+    boolean[] local = new boolean[erasedIndexes.length];
+    for (int o = 0; o < erasedIndexes.length; o++) {
+      int[] units = getLocalRepairUnits(erasedIndexes[o]);
+      if (units == null) {
+        continue;
+      }
+      local[o] = true;
+      for (int unit : units) {
+        local[o] &= available[unit];
+      }
+    }
+
+    boolean[] needed = new boolean[numGlobalUnits];
+    for (int o = 0; o < erasedIndexes.length; o++) {
+      int erased = erasedIndexes[o];
+      if (local[o]) {
+        localOutputs[numLocal++] = o;
+      } else if (erased < numGlobalUnits) {
+        needed[erased] = true;
+      } else {
+        parityOutputs[numParity++] = o;
+        for (int unit : localGroups[getLocalGroup(erased)]) {
+          needed[unit] |= !available[unit];
+        }
+      }
+    }
+    for (int o = 0; o < erasedIndexes.length; o++) {
+      if (local[o]) {
+        available[erasedIndexes[o]] = true;
+      }
+    }
+
+    int numAvailable = 0, numNeeded = 0;
+    for (int i = 0; i < numGlobalUnits; i++) {
+      numAvailable += available[i] ? 1 : 0;
+      numNeeded += needed[i] ? 1 : 0;
+    }
+    boolean[] globalInputs = new boolean[numGlobalUnits];
+    int[] globalErased = new int[0];
+    if (numNeeded > 0) {
+      if (numAvailable < k) {
+        throw new IllegalArgumentException("Not recoverable, " +
+            numAvailable + " units of the global code left for " + k +
+            " data units");
+      }
+      if (globalMSR && numNeeded == 1 &&
+          numAvailable == numGlobalUnits - 1) {
+        // single node repair of the global code, reading from all the others
+        System.arraycopy(available, 0, globalInputs, 0, numGlobalUnits);
+      } else {
+        int numInputs = 0;
+        for (int i = 0; i < numGlobalUnits && numInputs < k; i++) {
+          if (available[i]) {
+            globalInputs[i] = true;
+            numInputs++;
+          }
+        }
+      }
+      int numErased = 0;
+      globalErased = new int[numGlobalUnits];
+      for (int i = 0; i < numGlobalUnits; i++) {
+        if (needed[i] || (padGlobalErasures && !globalInputs[i])) {
+          globalErased[numErased++] = i;
+        }
+      }
+      globalErased = Arrays.copyOf(globalErased, numErased);
+    }
+
+    return new Repair(Arrays.copyOf(localOutputs, numLocal),
+        globalInputs, globalErased,
+        Arrays.copyOf(parityOutputs, numParity));
+  }
+
+  @Override
+  protected DecodePlan prepareDecodePlan(
+      ByteArrayDecodingState decodingState) {
+    getCounters().addCall();
+    Repair repair = getRepair(decodingState.inputs,
+        decodingState.erasedIndexes);
+    if (repair.globalErased.length == 0) {
+      return null;
+    }
+    // only the null pattern of the inputs is looked at
+    byte[][] globalInputs = new byte[repair.globalInputs.length][];
+    for (int i = 0; i < globalInputs.length; i++) {
+      if (repair.globalInputs[i]) {
+        globalInputs[i] = CoderUtil.findFirstValidInput(decodingState.inputs);
+      }
+    }
+    return globalDecoder.prepareDecodePlan(new ByteArrayDecodingState(
+        globalDecoder, decodingState.decodeLength, repair.globalErased,
+        globalInputs, new int[globalInputs.length], null, null));
+  }
+
+  @Override
+  protected void doDecode(ByteArrayDecodingState decodingState,
+      DecodePlan plan) throws IOException {
+    int dataLen = decodingState.decodeLength;
+    int[] erasedIndexes = decodingState.erasedIndexes;
+    Repair repair = getRepair(decodingState.inputs, erasedIndexes);
+
+    // every unit, outputs in place of the erased ones
+    byte[][] units = new byte[getNumAllUnits()][];
+    int[] offsets = new int[getNumAllUnits()];
+    boolean[] isOutput = new boolean[getNumAllUnits()];
+    System.arraycopy(decodingState.inputs, 0, units, 0,
+        decodingState.inputs.length);
+    System.arraycopy(decodingState.inputOffsets, 0, offsets, 0,
+        decodingState.inputOffsets.length);
+    for (int o = 0; o < erasedIndexes.length; o++) {
+      units[erasedIndexes[o]] = decodingState.outputs[o];
+      offsets[erasedIndexes[o]] = decodingState.outputOffsets[o];
+      isOutput[erasedIndexes[o]] = true;
+    }
+
+    for (int o : repair.localOutputs) {
+      int[] group = getLocalRepairUnits(erasedIndexes[o]);
+      CoderUtil.xorUnits(units, offsets, group, dataLen,
+          decodingState.outputs[o], decodingState.outputOffsets[o]);
+      getCounters().addKernelRun(group, group.length, 1, 1, dataLen,
+          group.length);
+    }
+
+    int[] globalErased = repair.globalErased;
+    if (globalErased.length > 0) {
+      byte[][] globalInputs = new byte[repair.globalInputs.length][];
+      int[] globalInputOffsets = new int[repair.globalInputs.length];
+      for (int i = 0; i < globalInputs.length; i++) {
+        if (repair.globalInputs[i]) {
+          globalInputs[i] = units[i];
+          globalInputOffsets[i] = offsets[i];
+        }
+      }
+      // units decoded on the way but not asked for go to scratch
+      byte[][] globalOutputs = new byte[globalErased.length][];
+      int[] globalOutputOffsets = new int[globalErased.length];
+      for (int j = 0; j < globalErased.length; j++) {
+        int unit = globalErased[j];
+        if (isOutput[unit]) {
+          globalOutputs[j] = units[unit];
+          globalOutputOffsets[j] = offsets[unit];
+        } else {
+          globalOutputs[j] = new byte[dataLen];
+          if (units[unit] == null) {
+            units[unit] = globalOutputs[j];
+          }
+        }
+      }
+      globalDecoder.doDecode(new ByteArrayDecodingState(globalDecoder,
+          dataLen, globalErased, globalInputs, globalInputOffsets,
+          globalOutputs, globalOutputOffsets), plan);
+    }
+
+    int k = getNumDataUnits();
+    for (int o : repair.parityOutputs) {
+      int[] group = localGroups[erasedIndexes[o] - k - numGlobalParityUnits];
+      CoderUtil.xorUnits(units, offsets, group, dataLen,
+          decodingState.outputs[o], decodingState.outputOffsets[o]);
+      getCounters().addKernelRun(group, group.length, 1, 1, dataLen,
+          group.length);
+    }
+  }
+
+  @Override
+  public void release() {
+    globalDecoder.release();
+  }
+}
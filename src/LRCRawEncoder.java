@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A raw erasure encoder of a locally repairable code: the k data units are
+ * split into numLocalGroups groups, each protected by the XOR of its units,
+ * on top of the global parities of an RS or MSR code over all k. A single
+ * lost unit of a group is then repaired from the rest of its group, which
+ * can be kept in one rack, and only more failures need the global code.
+ *
+ * The schema is (k, r + numLocalGroups): the k data units come first, then
+ * the r global parities, then the local parity of each group, all of the
+ * same length. Groups take consecutive data units, as evenly as possible.
+ */
+public class LRCRawEncoder extends RawErasureEncoder {
+  private final RawErasureEncoder globalEncoder;
+  private final int numGlobalParityUnits;
+  // data units of each group
+  private final int[][] localGroups;
+
+  /**
+   * @param coderOptions k data units and r + numLocalGroups parity units
+   * @param globalCodec CoderRegistry.RS_CODEC or CoderRegistry.MSR_CODEC,
+   *                    the code of the r global parities
+   */
+  public LRCRawEncoder(ErasureCoderOptions coderOptions, String globalCodec,
+      int numLocalGroups) {
+    super(coderOptions);
+    this.numGlobalParityUnits = getNumParityUnits() - numLocalGroups;
+    checkSchema(globalCodec, getNumDataUnits(), numGlobalParityUnits,
+        numLocalGroups);
+    this.localGroups = getLocalGroups(getNumDataUnits(), numLocalGroups);
+    // its ranges are those of this encoder, it must not split them again
+    this.globalEncoder = CoderRegistry.createEncoder(globalCodec,
+        new ErasureCoderOptions(getNumDataUnits(), numGlobalParityUnits,
+            allowChangeInputs(), allowVerboseDump(), false));
+    globalEncoder.setParallelPool(null);
+  }
+
+  static void checkSchema(String globalCodec, int numDataUnits,
+      int numGlobalParityUnits, int numLocalGroups) {
+    Preconditions.checkArgument(CoderRegistry.RS_CODEC.equals(globalCodec) ||
+        CoderRegistry.MSR_CODEC.equals(globalCodec),
+        "Invalid global codec %s, must code whole units", globalCodec);
+    Preconditions.checkArgument(numLocalGroups > 0 &&
+        numLocalGroups <= numDataUnits, "Invalid numLocalGroups: %s",
+        numLocalGroups);
+    Preconditions.checkArgument(numGlobalParityUnits > 0,
+        "No global parity units left beside %s local ones", numLocalGroups);
+  }
+
+  /**
+   * @return the data units of every local group, group g taking units
+   * [g*k/numLocalGroups, (g+1)*k/numLocalGroups)
+   */
+  static int[][] getLocalGroups(int numDataUnits, int numLocalGroups) {
+    int[][] groups = new int[numLocalGroups][];
+    for (int g = 0; g < numLocalGroups; g++) {
+      int start = g * numDataUnits / numLocalGroups;
+      int end = (g + 1) * numDataUnits / numLocalGroups;
+      groups[g] = new int[end - start];
+      for (int i = start; i < end; i++) {
+        groups[g][i - start] = i;
+      }
+    }
+    return groups;
+  }
+
+  public int getNumLocalGroups() {
+    return localGroups.length;
+  }
+
+  public int getNumGlobalParityUnits() {
+    return numGlobalParityUnits;
+  }
+
+  @Override
+  protected int getRangeAlignment() {
+    return globalEncoder.getRangeAlignment();
+  }
+
+  @Override
+  protected void doEncode(ByteArrayEncodingState encodingState)
+      throws IOException {
+    int dataLen = encodingState.encodeLength;
+    globalEncoder.doEncode(new ByteArrayEncodingState(globalEncoder,
+        dataLen, encodingState.inputs, encodingState.inputOffsets,
+        Arrays.copyOf(encodingState.outputs, numGlobalParityUnits),
+        Arrays.copyOf(encodingState.outputOffsets, numGlobalParityUnits)));
+
+    for (int g = 0; g < localGroups.length; g++) {
+      int out = numGlobalParityUnits + g;
+      CoderUtil.xorUnits(encodingState.inputs, encodingState.inputOffsets,
+          localGroups[g], dataLen, encodingState.outputs[out],
+          encodingState.outputOffsets[out]);
+      getCounters().addKernelRun(localGroups[g], localGroups[g].length, 1, 1,
+          dataLen, localGroups[g].length);
+    }
+  }
+
+  @Override
+  public void release() {
+    globalEncoder.release();
+  }
+}
@@ -0,0 +1,132 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Stores the files below a directory of the local file system. Files are
+ * written through a FileChannel and read through read only mappings, so a
+ * read is one copy out of the page cache, and map() gives the mapping itself
+ * to code on without any copy.
+ */
+public class LocalStripeStore implements StripeStore {
+    private final Path root;
+
+    public LocalStripeStore(String dir) throws IOException {
+        this.root = Paths.get(dir).toAbsolutePath();
+        Files.createDirectories(root);
+    }
+
+    /**
+     * @return the local file of path
+     */
+    public Path resolve(String path) {
+        String relative = path;
+        while (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        return root.resolve(relative);
+    }
+
+    @Override
+    public void write(String path, byte[] data, int offset, int len)
+            throws IOException {
+        Path file = resolve(path);
+        Files.createDirectories(file.getParent());
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(data, offset, len);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Map len bytes of a file at position, read only.
+     */
+    public MappedByteBuffer map(String path, long position, int len)
+            throws IOException {
+        FileChannel channel = FileChannel.open(resolve(path),
+                StandardOpenOption.READ);
+        try {
+            if (position + len > channel.size()) {
+                throw new EOFException(path + " has " + channel.size() +
+                        " bytes, reading " + len + " at " + position);
+            }
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, len);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Map a whole file, read only.
+     */
+    public MappedByteBuffer map(String path) throws IOException {
+        long size = Files.size(resolve(path));
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException(path + " is too large to map: " + size);
+        }
+        return map(path, 0, (int) size);
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException {
+        MappedByteBuffer mapped = map(path);
+        byte[] fileData = new byte[mapped.remaining()];
+        mapped.get(fileData);
+        return fileData;
+    }
+
+    @Override
+    public void readFully(String path, long position, byte[] buf, int offset,
+                          int len) throws IOException {
+        map(path, position, len).get(buf, offset, len);
+    }
+
+    @Override
+    public void delete(String path) throws IOException {
+        Path file = resolve(path);
+        try {
+            Files.walkFileTree(file, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path f, BasicFileAttributes attrs)
+                        throws IOException {
+                    Files.delete(f);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e)
+                        throws IOException {
+                    if (e != null) {
+                        throw e;
+                    }
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (NoSuchFileException e) {
+            // Nothing to delete
+        }
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
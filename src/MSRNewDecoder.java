@@ -1,7 +1,10 @@
 import com.google.common.base.Preconditions;
+import util.DecodePlan;
+import util.DecodePlanCache;
 import util.DumpUtil;
 import util.GF256;
 import util.RSUtil;
+import util.ScratchPool;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -19,30 +22,32 @@ public class MSRNewDecoder extends RawErasureDecoder {
      * Array of input tables generated from coding coefficients previously.
      * Must be of size 32*k*rows
      */
-    private int dataLen;
     private int l;
     private byte[] gfTables;
     private int[] validIndexes;
     private boolean[] erasureFlags;
     private int[] cachedErasedIndexes;
     private int numErasedDataUnits;
-    private final int sliceUnit = 1024;
+    private DecodePlan plan;
+    private final int sliceUnit = MSRNewEncoder.SLICE_UNIT;
+    private final ScratchPool scratchPool = new ScratchPool();
+    private final DecodePlanCache planCache = DecodePlanCache.getInstance();
 
 
     public MSRNewDecoder(ErasureCoderOptions coderOptions) {
         super(coderOptions);
 
-        int numAllUnits = getNumAllUnits();
-        if (getNumAllUnits() >= RSUtil.GF.getFieldSize()) {
+        // the coefficients are the positions before shortening, all distinct
+        if (getNumAllUnits() + RSUtil.getMSRNumVirtualUnits(getNumAllUnits(),
+                getNumDataUnits()) >= RSUtil.GF.getFieldSize()) {
             System.out.println(
                     "Invalid getNumDataUnits() and numParityUnits");
         }
-        assert getNumAllUnits() % getNumParityUnits() == 0;
-        int m = getNumAllUnits() / getNumParityUnits();
-        int s = getNumParityUnits();
-        this.l = (int)Math.pow(s, m);
-        MSRMatrix = new byte[getNumParityUnits() * getNumAllUnits() * l * l];
-        RSUtil.genMSRMatrix(MSRMatrix, numAllUnits, getNumDataUnits());
+        // shared with all the MSR coders of this schema, read only
+        CoderTables tables = CoderRegistry.getMSRTables(getNumDataUnits(),
+                getNumParityUnits());
+        this.l = tables.l;
+        MSRMatrix = tables.MSRMatrix;
         if (allowVerboseDump()) {
             DumpUtil.dumpMatrix(MSRMatrix, getNumParityUnits()*l, getNumAllUnits()*l);
         }
@@ -52,180 +57,210 @@ public class MSRNewDecoder extends RawErasureDecoder {
         return this.l;
     }
 
+    public ScratchPool getScratchPool() {
+        return scratchPool;
+    }
+
+    @Override
+    protected int getRangeAlignment() {
+        return sliceUnit;
+    }
+
+    @Override
+    public void release() {
+        scratchPool.clear();
+    }
+
+    /**
+     * Sub-packet j of a cell takes bytes [j*slice, (j+1)*slice) of every band
+     * of sliceUnit bytes. Inputs and outputs are addressed in place through
+     * strided offsets, sub-packets that are not needed are left null.
+     */
+    @Override
     protected void doDecode(ByteBufferDecodingState decodingState) {
         Preconditions.checkState(decodingState.decodeLength%sliceUnit == 0);
+        if (CoderUtil.findFirstValidInput(decodingState.inputs).isDirect()
+                && RSUtil.getNativeKernelName() == null) {
+            doDecodeStaged(decodingState);
+            return;
+        }
         CoderUtil.resetOutputBuffers(decodingState.outputs,
                 decodingState.decodeLength);
-        ByteBuffer[] realInputs = new ByteBuffer[getNumAllUnits()*l];
-        ByteBuffer[] realOutputs = new ByteBuffer[decodingState.erasedIndexes.length*l];
-        ByteBuffer[] noNullRealInputs;
-        int realEncodeLength = decodingState.decodeLength/l;
+        int numOutputs = decodingState.erasedIndexes.length;
         int slice = sliceUnit/l;
-        boolean single = (decodingState.erasedIndexes.length == 1);
-        for (int i=0; i<decodingState.erasedIndexes.length*l; i++) {
-            realOutputs[i] = ByteBuffer.allocate(realEncodeLength);
-        }
-        if (single) {
-            int[][] format = MSRNewDecoder.requiredDataFormat(decodingState.erasedIndexes[0]
+        int numBands = decodingState.decodeLength/sliceUnit;
+        ByteBuffer[] realInputs = new ByteBuffer[getNumAllUnits()*l];
+        int[] realInputOffsets = new int[getNumAllUnits()*l];
+        ByteBuffer[] realOutputs = new ByteBuffer[numOutputs*l];
+        int[] realOutputOffsets = new int[numOutputs*l];
+        int[][] format = null;
+        if (numOutputs == 1) {
+            format = MSRNewDecoder.requiredDataFormat(decodingState.erasedIndexes[0]
                     , getNumAllUnits(), getNumDataUnits());
-            for (int i=0; i < getNumAllUnits(); i++) {
-                for (int j=0; j<l; j++) {
-                    if (format[i][j] == 1) {
-                        realInputs[i*l+j] = ByteBuffer.allocate(realEncodeLength);
-                        for (int k = 0; k < decodingState.decodeLength / sliceUnit; k++) {
-                            int pos = k * sliceUnit + j * slice;
-                            decodingState.inputs[i].limit(pos + slice);
-                            decodingState.inputs[i].position(pos);
-                            realInputs[i * l + j].put(decodingState.inputs[i].duplicate());
-                        }
-                    }
-                    else {
-                        realInputs[i*l+j] = null;
-                    }
+        }
+        for (int i=0; i < getNumAllUnits(); i++) {
+            ByteBuffer input = decodingState.inputs[i];
+            for (int j=0; j<l; j++) {
+                if (input != null && (format == null || format[i][j] == 1)) {
+                    realInputs[i*l+j] = input;
+                    realInputOffsets[i*l+j] = input.position() + j*slice;
                 }
             }
-        } else {
-            for (int i=0; i < getNumAllUnits(); i++) {
-                if (decodingState.inputs[i] == null) {
-                    for (int j=0; j<l; j++) realInputs[i*l+j] = null;
-                    continue;
-                }
-                for (int j=0; j<l; j++) {
-                    realInputs[i*l+j] = ByteBuffer.allocate(realEncodeLength);
-                    for (int k=0; k<decodingState.decodeLength/sliceUnit; k++) {
-                        int pos = k*sliceUnit+j*slice;
-                        decodingState.inputs[i].limit(pos+slice);
-                        decodingState.inputs[i].position(pos);
-                        // int realPos = k*slice;
-                        realInputs[i*l+j].put(decodingState.inputs[i].duplicate());
-                    }
-                }
+        }
+        for (int i=0; i<numOutputs; i++) {
+            for (int j=0; j<l; j++) {
+                realOutputs[i*l+j] = decodingState.outputs[i];
+                realOutputOffsets[i*l+j] = decodingState.outputs[i].position() + j*slice;
             }
         }
         // Prepare the decode matrix and gftable
         prepareDecoding(realInputs, decodingState.erasedIndexes);
-        // Start to decode
-        if (single) {
-            Preconditions.checkArgument(validIndexes.length == (getNumAllUnits()-1)*l/getNumParityUnits());
-            noNullRealInputs = new ByteBuffer[(getNumAllUnits()-1)*l/getNumParityUnits()];
-            for (int i = 0; i < (getNumAllUnits()-1)*l/getNumParityUnits(); i++) {
-                noNullRealInputs[i] = realInputs[validIndexes[i]];
-                noNullRealInputs[i].flip();
-                noNullRealInputs[i].limit(realEncodeLength);
-            }
-            RSUtil.encodeData(gfTables, noNullRealInputs, realOutputs);
-        } else {
-            Preconditions.checkArgument(validIndexes.length == getNumDataUnits()*l);
-            noNullRealInputs = new ByteBuffer[getNumDataUnits()*l];
-            for (int i = 0; i < getNumDataUnits()*l; i++) {
-                noNullRealInputs[i] = realInputs[validIndexes[i]];
-            }
-            RSUtil.encodeData(gfTables, noNullRealInputs, realOutputs);
+        checkValidIndexes(numOutputs);
+        ByteBuffer[] noNullRealInputs = new ByteBuffer[validIndexes.length];
+        int[] noNullRealInputOffsets = new int[validIndexes.length];
+        for (int i = 0; i < validIndexes.length; i++) {
+            noNullRealInputs[i] = realInputs[validIndexes[i]];
+            noNullRealInputOffsets[i] = realInputOffsets[validIndexes[i]];
         }
-
-        for (int i=0; i<decodingState.erasedIndexes.length; i++) {
-            //int idx = decodingState.erasedIndexes[i];
-            for (int k=0; k<decodingState.decodeLength/sliceUnit; k++) {
-                for (int j=0; j<l; j++) {
-                    // int pos = k*sliceUnit+j*slice;
-                    int realPos = k*slice;
-                    realOutputs[i*l+j].limit(realPos+slice);
-                    realOutputs[i*l+j].position(realPos);
-                    decodingState.outputs[i].put(realOutputs[i*l+j].duplicate());
-                }
-            }
+        // Start to decode
+        RSUtil.encodeDataStrided(gfTables, slice, numBands, sliceUnit,
+                noNullRealInputs, noNullRealInputOffsets,
+                realOutputs, realOutputOffsets);
+        getCounters().addKernelRun(validIndexes, validIndexes.length, l,
+                realOutputs.length, decodingState.decodeLength/l,
+                (long) validIndexes.length*realOutputs.length);
+        for (int i=0; i<numOutputs; i++) {
+            ByteBuffer output = decodingState.outputs[i];
+            output.position(output.position() + decodingState.decodeLength);
         }
     }
 
     @Override
     protected void doDecode(ByteArrayDecodingState decodingState) {
+        doDecode(decodingState, prepareDecodePlan(decodingState));
+    }
+
+    @Override
+    protected DecodePlan prepareDecodePlan(ByteArrayDecodingState decodingState) {
+        Preconditions.checkState(decodingState.decodeLength%sliceUnit == 0);
+        byte[][] realInputs = getSubPacketInputs(decodingState,
+                new int[getNumAllUnits()*l]);
+        prepareDecoding(realInputs, decodingState.erasedIndexes);
+        checkValidIndexes(decodingState.erasedIndexes.length);
+        return plan;
+    }
+
+    @Override
+    protected void doDecode(ByteArrayDecodingState decodingState, DecodePlan plan) {
         Preconditions.checkState(decodingState.decodeLength%sliceUnit == 0);
         CoderUtil.resetOutputBuffers(decodingState.outputs,
-                decodingState.outputOffsets, dataLen);
-        byte[][] realInputs = new byte[getNumAllUnits()*l][];
-        byte[][] realOutputs = new byte[decodingState.erasedIndexes.length*l][];
-        byte[][] noNullRealInputs;
-        int realEncodeLength = decodingState.decodeLength/l;
+                decodingState.outputOffsets, decodingState.decodeLength);
+        int numOutputs = decodingState.erasedIndexes.length;
         int slice = sliceUnit/l;
-        boolean single = (decodingState.erasedIndexes.length == 1);
-        for (int i=0; i<decodingState.erasedIndexes.length*l; i++) {
-            realOutputs[i] = new byte[realEncodeLength];
+        int numBands = decodingState.decodeLength/sliceUnit;
+        int[] realInputOffsets = new int[getNumAllUnits()*l];
+        byte[][] realInputs = getSubPacketInputs(decodingState, realInputOffsets);
+        byte[][] realOutputs = new byte[numOutputs*l][];
+        int[] realOutputOffsets = new int[numOutputs*l];
+        for (int i=0; i<numOutputs; i++) {
+            for (int j=0; j<l; j++) {
+                realOutputs[i*l+j] = decodingState.outputs[i];
+                realOutputOffsets[i*l+j] = decodingState.outputOffsets[i] + j*slice;
+            }
         }
-        if (single) {
-            int[][] format = MSRNewDecoder.requiredDataFormat(decodingState.erasedIndexes[0]
+
+        int[] validIndexes = plan.getValidIndexes();
+        byte[][] noNullRealInputs = new byte[validIndexes.length][];
+        int[] noNullRealInputOffsets = new int[validIndexes.length];
+        for (int i = 0; i < validIndexes.length; i++) {
+            noNullRealInputs[i] = realInputs[validIndexes[i]];
+            noNullRealInputOffsets[i] = realInputOffsets[validIndexes[i]];
+        }
+        // Start to decode
+        RSUtil.encodeDataStrided(plan.getGfTables(), slice, numBands, sliceUnit,
+                noNullRealInputs, noNullRealInputOffsets,
+                realOutputs, realOutputOffsets);
+        getCounters().addKernelRun(validIndexes, validIndexes.length, l,
+                realOutputs.length, decodingState.decodeLength/l,
+                (long) validIndexes.length*realOutputs.length);
+    }
+
+    /**
+     * Get the sub-packets a decode reads, null where the input is erased or a
+     * single node repair does not need the sub-packet. Their offsets go to
+     * realInputOffsets.
+     */
+    private byte[][] getSubPacketInputs(ByteArrayDecodingState decodingState,
+                                        int[] realInputOffsets) {
+        int slice = sliceUnit/l;
+        byte[][] realInputs = new byte[getNumAllUnits()*l][];
+        int[][] format = null;
+        if (decodingState.erasedIndexes.length == 1) {
+            format = MSRNewDecoder.requiredDataFormat(decodingState.erasedIndexes[0]
                     , getNumAllUnits(), getNumDataUnits());
-            for (int i=0; i < getNumAllUnits(); i++) {
-                for (int j=0; j<l; j++) {
-                    if (format[i][j] == 1) {
-                        realInputs[i*l+j] = new byte[realEncodeLength];
-                        for (int k = 0; k < decodingState.decodeLength / sliceUnit; k++) {
-                            int pos = k * sliceUnit + j * slice;
-                            System.arraycopy(decodingState.inputs[i], pos, realInputs[i*l+j], k*slice, slice);
-                        }
-                    }
-                    else {
-                        realInputs[i*l+j] = null;
-                    }
-                }
-            }
-        } else {
-            for (int i=0; i < getNumAllUnits(); i++) {
-                if (decodingState.inputs[i] == null) {
-                    for (int j=0; j<l; j++) realInputs[i*l+j] = null;
-                    continue;
-                }
-                for (int j=0; j<l; j++) {
-                    realInputs[i*l+j] = new byte[realEncodeLength];
-                    for (int k=0; k<decodingState.decodeLength/sliceUnit; k++) {
-                        int pos = k*sliceUnit+j*slice;
-                        System.arraycopy(decodingState.inputs[i], pos, realInputs[i*l+j], k*slice, slice);
-                    }
+        }
+        for (int i=0; i < getNumAllUnits(); i++) {
+            byte[] input = decodingState.inputs[i];
+            for (int j=0; j<l; j++) {
+                if (input != null && (format == null || format[i][j] == 1)) {
+                    realInputs[i*l+j] = input;
+                    realInputOffsets[i*l+j] = decodingState.inputOffsets[i] + j*slice;
                 }
             }
         }
+        return realInputs;
+    }
 
-        // Prepare the decode matrix and gftable
-        prepareDecoding(realInputs, decodingState.erasedIndexes);
-        // Start to decode
-        if (single) {
-            Preconditions.checkArgument(validIndexes.length == (getNumAllUnits()-1)*l/getNumParityUnits());
-            int[] realInputOffsets = new int[(getNumAllUnits()-1)*l/getNumParityUnits()];
-            int[] realOutputOffsets = new int[l];
-            noNullRealInputs = new byte[(getNumAllUnits()-1)*l/getNumParityUnits()][];
-            for (int i = 0; i < (getNumAllUnits()-1)*l/getNumParityUnits(); i++) {
-                noNullRealInputs[i] = realInputs[validIndexes[i]];
-                // realInputOffsets[i] = decodingState.inputOffsets[validIndexes[i]];
+    /**
+     * Direct buffers are read a slice of slice bytes at a time by the strided
+     * kernels, too short for the vector loads on buffers to pay off, so
+     * their cells are staged in heap arrays drawn from the scratch pool. The
+     * native kernel takes them in place instead.
+     */
+    private void doDecodeStaged(ByteBufferDecodingState decodingState) {
+        int len = decodingState.decodeLength;
+        byte[][] inputs = new byte[getNumAllUnits()][];
+        byte[][] outputs = new byte[decodingState.outputs.length][];
+        for (int i=0; i<getNumAllUnits(); i++) {
+            if (decodingState.inputs[i] != null) {
+                inputs[i] = scratchPool.take(len);
+                decodingState.inputs[i].duplicate().get(inputs[i]);
+                getCounters().addStagingBytes(len);
             }
-            RSUtil.encodeData(gfTables, realEncodeLength, noNullRealInputs, realInputOffsets,
-                    realOutputs, realOutputOffsets);
-        } else {
-            Preconditions.checkArgument(validIndexes.length == getNumDataUnits()*l);
-            int[] realInputOffsets = new int[getNumDataUnits()*l];
-            int[] realOutputOffsets = new int[decodingState.erasedIndexes.length*l];
-            noNullRealInputs = new byte[getNumDataUnits()*l][];
-            for (int i = 0; i < getNumDataUnits()*l; i++) {
-                noNullRealInputs[i] = realInputs[validIndexes[i]];
+        }
+        for (int i=0; i<outputs.length; i++) {
+            outputs[i] = scratchPool.take(len);
+        }
+        getCounters().addStagingBytes((long) outputs.length*len);
+        doDecode(new ByteArrayDecodingState(this, len,
+                decodingState.erasedIndexes, inputs, new int[inputs.length],
+                outputs, new int[outputs.length]));
+        for (int i=0; i<outputs.length; i++) {
+            decodingState.outputs[i].put(outputs[i]);
+            scratchPool.give(outputs[i]);
+        }
+        for (int i=0; i<getNumAllUnits(); i++) {
+            if (inputs[i] != null) {
+                scratchPool.give(inputs[i]);
             }
-            RSUtil.encodeData(gfTables, realEncodeLength, noNullRealInputs, realInputOffsets,
-                    realOutputs, realOutputOffsets);
         }
+    }
 
-        for (int i=0; i<decodingState.erasedIndexes.length; i++) {
-            //int idx = decodingState.erasedIndexes[i];
-            for (int k=0; k<decodingState.decodeLength/sliceUnit; k++) {
-                for (int j=0; j<l; j++) {
-                    // int pos = k*sliceUnit+j*slice;
-                    System.arraycopy(realOutputs[i*l+j], k*slice, decodingState.outputs[i],
-                            k*sliceUnit+j*slice, slice);
-                }
-            }
+    private void checkValidIndexes(int numOutputs) {
+        if (numOutputs == 1) {
+            Preconditions.checkArgument(validIndexes.length == (getNumAllUnits()-1)*l/getNumParityUnits());
+        } else {
+            Preconditions.checkArgument(validIndexes.length == getNumDataUnits()*l);
         }
     }
 
     private <T> void prepareDecoding(T[] inputs, int[] erasedIndexes) {
         int[] tmpValidIndexes = CoderUtil.getValidIndexes(inputs);
+        getCounters().addCall();
+        getCounters().addSubPacketsRead(tmpValidIndexes.length);
         if (Arrays.equals(this.cachedErasedIndexes, erasedIndexes) &&
                 Arrays.equals(this.validIndexes, tmpValidIndexes)) {
+            getCounters().addPlanCacheHit();
             return; // Optimization. Nothing to do
         }
         this.cachedErasedIndexes =
@@ -233,7 +268,22 @@ public class MSRNewDecoder extends RawErasureDecoder {
         this.validIndexes =
                 Arrays.copyOf(tmpValidIndexes, tmpValidIndexes.length);
 
-        processErasures(erasedIndexes);
+        // Plans are shared with the other decoders of this schema
+        DecodePlanCache.Key key = new DecodePlanCache.Key("MSRNew",
+                getNumDataUnits(), getNumParityUnits(), isUsePCM(),
+                erasedIndexes, validIndexes);
+        DecodePlan plan = planCache.get(key);
+        if (plan == null) {
+            getCounters().addPlanCacheMiss();
+            processErasures(erasedIndexes);
+            plan = planCache.put(key,
+                    new DecodePlan(validIndexes, decodeMatrix, gfTables));
+        } else {
+            getCounters().addPlanCacheHit();
+        }
+        this.plan = plan;
+        this.decodeMatrix = plan.getDecodeMatrix();
+        this.gfTables = plan.getGfTables();
     }
 
     private void processErasures(int[] erasedIndexes) {
@@ -268,13 +318,12 @@ public class MSRNewDecoder extends RawErasureDecoder {
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
         int i, j, p, q;
         r = erasedIndexes.length;
         int rr = n-k-r;
         byte tar, inv, tmp;
+        // eliminate on a copy, the result must only depend on the pattern
+        byte[] MSRMatrix = this.MSRMatrix.clone();
 
         // generate decode matrix
         this.decodeMatrix = new byte[r*l*k*l];
@@ -310,73 +359,13 @@ public class MSRNewDecoder extends RawErasureDecoder {
     }
 
     private void singlePrepareDecoding(int[] erasedIndexes) {
-        int i, j, p, e, w;
         int n = getNumAllUnits();
         int k = getNumDataUnits();
-        int v, u;
-        int a, b, temp;
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
-        int errorTip = erasedIndexes[0];
-
-        // initialize
-        int[] Ary = new int[m];
-        int[] a_index = new int[l/s];
-        u = errorTip % s;
-        v = (errorTip-u)/s + 1;
-        byte[] leftMatrix = new byte[l*l];
-        byte[] invertleftMatrix = new byte[l*l];
-        byte[] tmpMatrix = new byte[l*(n-1)*l/r];
-        this.decodeMatrix = new byte[l*(n-1)*l/r];
 
-        // a_v = u
-        w = 0;
-        for (a=0; a < l; a++) {
-            e = 0;
-            temp = a;
-            for (p=0; p < m; p++) Ary[p] = 0;
-            while (temp/s != 0) {
-                Ary[e] = temp%s;
-                temp = temp/s;
-                e++;
-            }
-            Ary[e] = temp % s;
-            if (Ary[v-1] == u) {
-                a_index[w] = a;
-                w++;
-            }
-        }
-
-        // set the decode matrix valuye
-        for (j=0; j < r; j++)
-            for (a=0; a < l/s; a++){
-                for (b=0; b < l; b++)
-                    leftMatrix[j*(l/s)*l + a*l + b] = MSRMatrix[j*l*n*l + a_index[a]*n*l + errorTip*l + b];
-                int pp=0;
-                for (p=0; p < n; p++){
-                    if (p == errorTip) {
-                        continue;
-                    }
-                    for(b=0; b < l/r; b++){
-                        tmpMatrix[j*l/s*(n-1)*l/s + a*(n-1)*l/s + pp*l/r + b] =
-                                MSRMatrix[j*l*n*l + a_index[a]*n*l + p*l + a_index[b]];
-                    }
-                    pp++;
-                }
-            }
-        // DumpUtil.dumpMatrix(tmpMatrix, l, (n-1)*l/r);
-        GF256.gfInvertMatrix(leftMatrix, invertleftMatrix, l);
-        // generate decode matrix
-        byte tmp;
-        for (i=0; i < l; i++)
-            for (j=0; j < (n-1)*l/r; j++) {
-                tmp = 0;
-                for (e=0; e < l; e++)
-                    tmp ^= GF256.gfMul(invertleftMatrix[i*l + e], tmpMatrix[e*(n-1)*l/r + j]);
-                decodeMatrix[i*(n-1)*l/r + j] = tmp;
-            }
+        // per coupled layer s x s systems, see RSUtil.genMSRRepairMatrix
+        this.decodeMatrix = new byte[l*(n-1)*l/r];
+        RSUtil.genMSRRepairMatrix(MSRMatrix, decodeMatrix, n, k, erasedIndexes[0]);
     }
 
     public static int[][] requiredDataFormat(int erasedIdx, int n, int k){
@@ -384,17 +373,19 @@ public class MSRNewDecoder extends RawErasureDecoder {
         int v, u;
         int r = n - k;
         int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
+        // digits of the positions before shortening, see RSUtil
+        int m = (n + RSUtil.getMSRNumVirtualUnits(n, k)) / s;
+        int l = RSUtil.getMSRSubPackets(n, k);
         int[][] dataIndexes = new int[n][];
         for (i=0; i < n; i++)
             dataIndexes[i] = new int[l];
         // single node recovery
         for (i=0; i < n; i++)
-            for (j=0; j < n; j++)
+            for (j=0; j < l; j++)
                 dataIndexes[i][j] = 0;
-        u = erasedIdx % s;
-        v = (erasedIdx-u)/s + 1;
+        int pos = RSUtil.getMSRNodePosition(erasedIdx, n, k);
+        u = pos % s;
+        v = (pos-u)/s + 1;
         int Ary[] = new int[m];
         int temp;
         for (i=0; i < l; i++) {
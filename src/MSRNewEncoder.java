@@ -1,7 +1,9 @@
 import com.google.common.base.Preconditions;
+import util.CodingSchedule;
 import util.DumpUtil;
 import util.GF256;
 import util.RSUtil;
+import util.ScratchPool;
 
 import java.nio.ByteBuffer;
 
@@ -16,9 +18,14 @@ public class MSRNewEncoder  extends RawErasureEncoder{
     // relevant to schema and won't change during encode calls.
     private byte[] encodeMatrix;
     private byte[] MSRMatrix;
-    private byte[] gfTables;
+    private CodingSchedule schedule;
+    private final ScratchPool scratchPool = new ScratchPool();
     int l;
-    final int sliceUnit = 1024;
+    /**
+     * Band the sub-packets of a cell are interleaved in; l must divide it.
+     */
+    public static final int SLICE_UNIT = 1024;
+    final int sliceUnit = SLICE_UNIT;
     /**
      * Array of input tables generated from coding coefficients previously.
      * Must be of size 32*k*rows
@@ -27,124 +34,143 @@ public class MSRNewEncoder  extends RawErasureEncoder{
     public MSRNewEncoder(ErasureCoderOptions coderOptions) {
         super(coderOptions);
 
-        if (getNumAllUnits() >= RSUtil.GF.getFieldSize()) {
-            System.out.println(
-                    "Invalid numDataUnits and numParityUnits");
-        }
-        if (getNumAllUnits() % getNumParityUnits() != 0) {
+        // the coefficients are the positions before shortening, all distinct
+        if (getNumAllUnits() + RSUtil.getMSRNumVirtualUnits(getNumAllUnits(),
+                getNumDataUnits()) >= RSUtil.GF.getFieldSize()) {
             System.out.println(
                     "Invalid numDataUnits and numParityUnits");
         }
-
-        int m = getNumAllUnits() / getNumParityUnits();
-        int s = getNumParityUnits();
-        l = (int)Math.pow(s, m);
+        // shared with all the MSR coders of this schema
+        CoderTables tables = CoderRegistry.getMSRTables(getNumDataUnits(),
+                getNumParityUnits());
+        l = tables.l;
         Preconditions.checkState(sliceUnit%l == 0);
-        encodeMatrix = new byte[getNumAllUnits() * getNumDataUnits() * l * l];
-        MSRMatrix = new byte[getNumParityUnits() * getNumAllUnits() * l * l];
-        RSUtil.genMSRMatrix(MSRMatrix, getNumAllUnits(), getNumDataUnits());
-        RSUtil.genMSREncodeMatrix(MSRMatrix, encodeMatrix, getNumAllUnits(), getNumDataUnits());
+        encodeMatrix = tables.encodeMatrix;
+        MSRMatrix = tables.MSRMatrix;
         if (allowVerboseDump()) {
             DumpUtil.dumpMatrix(encodeMatrix, getNumDataUnits(), getNumAllUnits());
         }
-        gfTables = new byte[getNumAllUnits() * getNumDataUnits() * l * l * 32];
-        RSUtil.initTables(getNumDataUnits() * l, getNumParityUnits() * l, encodeMatrix,
-                getNumDataUnits() * l * getNumDataUnits() * l, gfTables);
+        schedule = tables.schedule;
         if (allowVerboseDump()) {
-            System.out.println(DumpUtil.bytesToHex(gfTables, -1));
+            System.out.println(schedule);
         }
     }
 
+    /**
+     * The l sub-packets of a cell are interleaved in bands of sliceUnit bytes,
+     * sub-packet j taking bytes [j*slice, (j+1)*slice) of every band. They are
+     * coded in place through strided offsets instead of being copied out.
+     */
+    @Override
     protected void doEncode(ByteBufferEncodingState encodingState) {
         Preconditions.checkState(encodingState.encodeLength%sliceUnit == 0);
-        int realEncodeLength = encodingState.encodeLength/l;
-        ByteBuffer[] realInput = new ByteBuffer[getNumDataUnits()*l];
-        ByteBuffer[] realOutput = new ByteBuffer[getNumParityUnits()*l];
-        for (int i=0; i<getNumDataUnits()*l; i++) {
-            realInput[i] = ByteBuffer.allocate(realEncodeLength);
-        }
-        for (int i=0; i<getNumParityUnits()*l; i++) {
-            realOutput[i] = ByteBuffer.allocate(realEncodeLength);
+        if (CoderUtil.findFirstValidInput(encodingState.inputs).isDirect()
+                && RSUtil.getNativeKernelName() == null) {
+            doEncodeStaged(encodingState);
+            return;
         }
-        // Change the format of input and output, buffer can be a reference
         int slice = sliceUnit/l;
+        int numBands = encodingState.encodeLength/sliceUnit;
+        ByteBuffer[] realInput = new ByteBuffer[getNumDataUnits()*l];
+        ByteBuffer[] realOutput = new ByteBuffer[getNumParityUnits()*l];
+        int[] realInputOffsets = new int[realInput.length];
+        int[] realOutputOffsets = new int[realOutput.length];
         for (int i=0; i<getNumDataUnits(); i++) {
             for (int j=0; j<l; j++) {
-                for (int k=0; k<encodingState.encodeLength/sliceUnit; k++) {
-                    int pos = k*sliceUnit+j*slice;
-                    encodingState.inputs[i].limit(pos+slice);
-                    encodingState.inputs[i].position(pos);
-                    // int realPos = k*slice;
-                    realInput[i*l+j].put(encodingState.inputs[i].duplicate());
-                }
+                realInput[i*l+j] = encodingState.inputs[i];
+                realInputOffsets[i*l+j] = encodingState.inputs[i].position() + j*slice;
             }
         }
-        for (int i=0; i<getNumDataUnits()*l; i++) {
-            realInput[i].flip();
-            realInput[i].limit(realEncodeLength);
-        }
-        //CoderUtil.resetOutputBuffers(encodingState.outputs,
-        //        encodingState.encodeLength);
-        CoderUtil.resetOutputBuffers(realOutput, realEncodeLength);
-        RSUtil.encodeData(gfTables, realInput, realOutput);
-        // change the format of output
         for (int i=0; i<getNumParityUnits(); i++) {
-            for (int k=0; k<encodingState.encodeLength/sliceUnit; k++) {
-                for (int j=0; j<l; j++) {
-                    // int pos = k*sliceUnit+j*slice;
-                    int realPos = k*slice;
-                    realOutput[i*l+j].limit(realPos+slice);
-                    realOutput[i*l+j].position(realPos);
-                    encodingState.outputs[i].put(realOutput[i*l+j].duplicate());
-                }
+            for (int j=0; j<l; j++) {
+                realOutput[i*l+j] = encodingState.outputs[i];
+                realOutputOffsets[i*l+j] = encodingState.outputs[i].position() + j*slice;
             }
         }
+        CoderUtil.resetOutputBuffers(encodingState.outputs,
+                encodingState.encodeLength);
+        RSUtil.encodeDataSparseStrided(schedule, slice, numBands, sliceUnit,
+                realInput, realInputOffsets, realOutput, realOutputOffsets);
+        getCounters().addKernelRun(null, realInput.length, l,
+                realOutput.length, encodingState.encodeLength/l,
+                schedule.getNumNonZeros());
+        for (int i=0; i<getNumParityUnits(); i++) {
+            ByteBuffer output = encodingState.outputs[i];
+            output.position(output.position() + encodingState.encodeLength);
+        }
     }
 
     @Override
     protected void doEncode(ByteArrayEncodingState encodingState) {
         Preconditions.checkState(encodingState.encodeLength%sliceUnit == 0);
-        int realEncodeLength = encodingState.encodeLength/l;
+        int slice = sliceUnit/l;
+        int numBands = encodingState.encodeLength/sliceUnit;
         byte[][] realInput = new byte[getNumDataUnits()*l][];
         byte[][] realOutput = new byte[getNumParityUnits()*l][];
         int[] realInputOffsets = new int[realInput.length];
         int[] realOutputOffsets = new int[realOutput.length];
-        for (int i=0; i<getNumDataUnits()*l; i++) {
-            realInput[i] = new byte[realEncodeLength];
-        }
-        for (int i=0; i<getNumParityUnits()*l; i++) {
-            realOutput[i] = new byte[realEncodeLength];
-        }
-        // Change to the real inputs format
-        int slice = sliceUnit/l;    //the slice is the smallest unit for decode
         for (int i=0; i<getNumDataUnits(); i++) {
-            byte[] tmpInput = encodingState.inputs[i];
             for (int j=0; j<l; j++) {
-                for (int k=0; k<encodingState.encodeLength/sliceUnit; k++) {
-                    System.arraycopy(tmpInput, k*sliceUnit+j*slice, realInput[i*l+j], k*slice, slice);
-                }
+                realInput[i*l+j] = encodingState.inputs[i];
+                realInputOffsets[i*l+j] = encodingState.inputOffsets[i] + j*slice;
+            }
+        }
+        for (int i=0; i<getNumParityUnits(); i++) {
+            for (int j=0; j<l; j++) {
+                realOutput[i*l+j] = encodingState.outputs[i];
+                realOutputOffsets[i*l+j] = encodingState.outputOffsets[i] + j*slice;
             }
         }
         CoderUtil.resetOutputBuffers(encodingState.outputs,
                 encodingState.outputOffsets,
                 encodingState.encodeLength);
-        CoderUtil.resetOutputBuffers(realOutput,
-                realOutputOffsets, realEncodeLength);
-        RSUtil.encodeData(gfTables, realEncodeLength, realInput,
-                realInputOffsets, realOutput, realOutputOffsets);
-        // Finally change to real output format
+        RSUtil.encodeDataSparseStrided(schedule, slice, numBands, sliceUnit,
+                realInput, realInputOffsets, realOutput, realOutputOffsets);
+        getCounters().addKernelRun(null, realInput.length, l,
+                realOutput.length, encodingState.encodeLength/l,
+                schedule.getNumNonZeros());
+    }
+
+    /**
+     * Direct buffers are read a slice of slice bytes at a time by the strided
+     * kernels, too short for the vector loads on buffers to pay off, so
+     * their cells are staged in heap arrays drawn from the scratch pool. The
+     * native kernel takes them in place instead.
+     */
+    private void doEncodeStaged(ByteBufferEncodingState encodingState) {
+        int len = encodingState.encodeLength;
+        getCounters().addStagingBytes((long) getNumAllUnits()*len);
+        byte[][] inputs = new byte[getNumDataUnits()][];
+        byte[][] outputs = new byte[getNumParityUnits()][];
+        for (int i=0; i<getNumDataUnits(); i++) {
+            inputs[i] = scratchPool.take(len);
+            encodingState.inputs[i].duplicate().get(inputs[i]);
+        }
         for (int i=0; i<getNumParityUnits(); i++) {
-            for (int k=0; k<encodingState.encodeLength/sliceUnit; k++) {
-                for (int j=0; j<l; j++) {
-                    System.arraycopy(realOutput[i*l+j], k*slice, encodingState.outputs[i], k*sliceUnit+j*slice, slice);
-                }
-            }
+            outputs[i] = scratchPool.take(len);
         }
-        /*
-        RSUtil.encodeData(gfTables, encodingState.encodeLength,
-                encodingState.inputs,
-                encodingState.inputOffsets, encodingState.outputs,
-                encodingState.outputOffsets);
-        */
+        doEncode(new ByteArrayEncodingState(this, len, inputs,
+                new int[inputs.length], outputs, new int[outputs.length]));
+        for (int i=0; i<getNumParityUnits(); i++) {
+            encodingState.outputs[i].put(outputs[i]);
+            scratchPool.give(outputs[i]);
+        }
+        for (int i=0; i<getNumDataUnits(); i++) {
+            scratchPool.give(inputs[i]);
+        }
+    }
+
+    public ScratchPool getScratchPool() {
+        return scratchPool;
+    }
+
+    @Override
+    protected int getRangeAlignment() {
+        return sliceUnit;
+    }
+
+    @Override
+    public void release() {
+        scratchPool.clear();
     }
 }
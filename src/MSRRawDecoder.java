@@ -16,6 +16,8 @@
  * limitations under the License.
  */
 
+import util.DecodePlan;
+import util.DecodePlanCache;
 import util.DumpUtil;
 import util.GF256;
 import util.RSUtil;
@@ -44,69 +46,100 @@ public class MSRRawDecoder extends RawErasureDecoder {
      * Must be of size 32*k*rows
      */
     // private byte[] gfTables;
-    private int dataLen;
-    private byte[] gfTables;
     private int[] validIndexes;
     private int numErasedDataUnits;
     private boolean[] erasureFlags;
+    private final DecodePlanCache planCache = DecodePlanCache.getInstance();
+    private final CoderTables tables;
 
     public MSRRawDecoder(ErasureCoderOptions coderOptions) {
         super(coderOptions);
 
-        int numAllUnits = getNumAllUnits();
-        if (getNumAllUnits() >= RSUtil.GF.getFieldSize()) {
+        // the coefficients are the positions before shortening, all distinct
+        if (getNumAllUnits() + RSUtil.getMSRNumVirtualUnits(getNumAllUnits(),
+                getNumDataUnits()) >= RSUtil.GF.getFieldSize()) {
             System.out.println(
                     "Invalid getNumDataUnits() and numParityUnits");
         }
-        // generate the encodeMatrix
-        assert getNumAllUnits() % getNumParityUnits() == 0;
-        int m = getNumAllUnits() / getNumParityUnits();
-        int s = getNumParityUnits();
-        int l = (int)Math.pow(s, m);
-        MSRMatrix = new byte[getNumParityUnits() * getNumAllUnits() * l * l];
-        RSUtil.genMSRMatrix(MSRMatrix, numAllUnits, getNumDataUnits());
+        // shared with all the MSR coders of this schema, read only
+        tables = CoderRegistry.getMSRTables(getNumDataUnits(),
+                getNumParityUnits());
+        MSRMatrix = tables.MSRMatrix;
         // DumpUtil.dumpMatrix(MSRMatrix, getNumParityUnits()*l, getNumAllUnits()*l);
     }
 
     @Override
-    protected void doDecode(ByteArrayDecodingState decodingState) {
-        dataLen = decodingState.decodeLength;
+    protected DecodePlan prepareDecodePlan(ByteArrayDecodingState decodingState) {
+        int[] erasedIndexes = decodingState.erasedIndexes;
+        int[] tmpValidIndexes = CoderUtil.getValidIndexes(decodingState.inputs);
+        int n = getNumAllUnits();
+        int l = tables.l;
+        getCounters().addCall();
+        getCounters().addSubPacketsRead((erasedIndexes.length == 1) ?
+                (n-1)*l/getNumParityUnits() : getNumDataUnits()*l);
+        // Plans are shared with the other decoders of this schema
+        DecodePlanCache.Key key = new DecodePlanCache.Key("MSRRaw",
+                getNumDataUnits(), getNumParityUnits(), isUsePCM(),
+                erasedIndexes, tmpValidIndexes);
+        DecodePlan plan = planCache.get(key);
+        if (plan == null) {
+            getCounters().addPlanCacheMiss();
+            plan = planCache.put(key, buildPlan(decodingState.inputs, erasedIndexes));
+        } else {
+            getCounters().addPlanCacheHit();
+        }
+        this.validIndexes = plan.getValidIndexes();
+        this.decodeMatrix = plan.getDecodeMatrix();
+        return plan;
+    }
+
+    @Override
+    protected void doDecode(ByteArrayDecodingState decodingState, DecodePlan plan) {
+        int dataLen = decodingState.decodeLength;
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
-        assert n % s == 0;
+        int l = tables.l;
         CoderUtil.resetOutputBuffers(decodingState.outputs,
                 decodingState.outputOffsets, dataLen);
 
-        if (decodingState.erasedIndexes.length == 1){
-            singlePrepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
-            byte[][] realInputs = new byte[(n-1)*l/r][];
-            for (int i = 0; i < (n-1)*l/r; i++)
-                realInputs[i] = decodingState.inputs[validIndexes[i]];
-            MSRDecode(decodeMatrix, dataLen, realInputs, decodingState.outputs);
-            // singleMSRDecode();
+        int[] validIndexes = plan.getValidIndexes();
+        int numInputs = (decodingState.erasedIndexes.length == 1) ? (n-1)*l/r : k*l;
+        byte[][] realInputs = new byte[numInputs][];
+        int[] realInputOffsets = new int[numInputs];
+        for (int i = 0; i < numInputs; i++) {
+            realInputs[i] = decodingState.inputs[validIndexes[i]];
+            realInputOffsets[i] = decodingState.inputOffsets[validIndexes[i]];
+        }
+        // MSRDecode(decodeMatrix, dataLen, realInputs, decodingState.outputs);
+        RSUtil.encodeDataBlocked(plan.getGfTables(), dataLen, realInputs, realInputOffsets,
+                decodingState.outputs, decodingState.outputOffsets);
+        int numOutputs = decodingState.outputs.length;
+        getCounters().addKernelRun(validIndexes, numInputs, l, numOutputs,
+                dataLen, (long) numInputs*numOutputs);
+    }
+
+    private DecodePlan buildPlan(byte[][] inputs, int[] erasedIndexes) {
+        int n = getNumAllUnits();
+        int k = getNumDataUnits();
+        int r = n - k;
+        int l = tables.l;
+        int numInputs;
+        if (erasedIndexes.length == 1) {
+            singlePrepareDecoding(inputs, erasedIndexes);
+            numInputs = (n-1)*l/r;
         } else {
             if (isUsePCM()) {
-                mulPrepareAPCMDecoding(decodingState.inputs, decodingState.erasedIndexes);
+                mulPrepareAPCMDecoding(inputs, erasedIndexes);
             } else {
-                mulPrepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
-            }
-            byte[][] realInputs = new byte[k*l][];
-            int[] realInputOffsets = new int[getNumDataUnits()*l];
-            for (int i = 0; i < k*l; i++) {
-                realInputs[i] = decodingState.inputs[validIndexes[i]];
-                realInputOffsets[i] = decodingState.inputOffsets[validIndexes[i]];
+                mulPrepareDecoding(inputs, erasedIndexes);
             }
-            this.gfTables = new byte[decodingState.erasedIndexes.length*l * k*l * 32];
-            // MSRDecode(decodeMatrix, dataLen, realInputs, decodingState.outputs);
-            RSUtil.initTables(getNumDataUnits()*l, decodingState.erasedIndexes.length*l,
-                    decodeMatrix, 0, gfTables);
-            RSUtil.encodeData(gfTables, dataLen, realInputs, realInputOffsets,
-                    decodingState.outputs, decodingState.outputOffsets);
+            numInputs = k*l;
         }
+        byte[] gfTables = new byte[erasedIndexes.length*l * numInputs * 32];
+        RSUtil.initTables(numInputs, erasedIndexes.length*l,
+                decodeMatrix, 0, gfTables);
+        return new DecodePlan(validIndexes, decodeMatrix, gfTables);
     }
 
     private void MSRDecode(byte[] encodeMatrix, int encodeLen, byte[][] inputs,
@@ -114,9 +147,7 @@ public class MSRRawDecoder extends RawErasureDecoder {
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n/s;
-        int l = (int)Math.pow(s, m);
+        int l = tables.l;
         int numInputs = inputs.length;
         int numOutputs = outputs.length;
 
@@ -140,13 +171,13 @@ public class MSRRawDecoder extends RawErasureDecoder {
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
+        int l = tables.l;
         int i, j, p, q;
         r = erasedIndexes.length;
         int rr = n-k-r;
         byte tar, inv, tmp;
+        // eliminate on a copy, the result must only depend on the pattern
+        byte[] MSRMatrix = this.MSRMatrix.clone();
 
         // find valid input k*l size
         int[] tmpValidIndexes = CoderUtil.getValidIndexes(inputs);
@@ -188,9 +219,7 @@ public class MSRRawDecoder extends RawErasureDecoder {
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
+        int l = tables.l;
         int i, j, p, q, e;
         assert numErasedDataUnits == erasedIndexes.length;
 
@@ -240,17 +269,14 @@ public class MSRRawDecoder extends RawErasureDecoder {
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
+        int l = tables.l;
         int i, j, p, q, t;
         r = erasedIndexes.length;
 
-        byte[] encodeMatrix = new byte[getNumAllUnits() * getNumDataUnits() * l * l];
+        byte[] encodeMatrix = tables.encodeMatrix;
         byte[] tmpMatrix = new byte[getNumDataUnits() * getNumDataUnits() * l * l];
         byte[] invertMatrix = new byte[getNumDataUnits() * getNumDataUnits() * l * l];
         decodeMatrix = new byte[r * k * l * l];
-        RSUtil.genMSREncodeMatrix(MSRMatrix, encodeMatrix, getNumAllUnits(), getNumDataUnits());
 
         // DumpUtil.dumpMatrix(MSRMatrix, s*l, n*l);
 
@@ -307,76 +333,17 @@ public class MSRRawDecoder extends RawErasureDecoder {
     }
 
     private void singlePrepareDecoding(byte[][] inputs, int[] erasedIndexes) {
-        int i, j, p, q, e, w;
         int n = getNumAllUnits();
         int k = getNumDataUnits();
-        int v, u;
-        int a, b, temp;
         int r = n - k;
-        int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
-        int errorTip = erasedIndexes[0];
+        int l = tables.l;
 
-        // find valid input k*l size
+        // find valid input (n-1)*l/r size
         int[] tmpValidIndexes = CoderUtil.getValidIndexes(inputs);
         this.validIndexes = Arrays.copyOf(tmpValidIndexes, tmpValidIndexes.length);
-        // initialize
-        int[] Ary = new int[m];
-        int[] a_index = new int[l/s];
-        u = errorTip % s;
-        v = (errorTip-u)/s + 1;
-        byte[] leftMatrix = new byte[l*l];
-        byte[] invertleftMatrix = new byte[l*l];
-        byte[] tmpMatrix = new byte[l*(n-1)*l/r];
+        // per coupled layer s x s systems, see RSUtil.genMSRRepairMatrix
         decodeMatrix = new byte[l*(n-1)*l/r];
-
-        // a_v = u
-        w = 0;
-        for (a=0; a < l; a++) {
-            e = 0;
-            temp = a;
-            for (p=0; p < m; p++) Ary[p] = 0;
-            while (temp/s != 0) {
-                Ary[e] = temp%s;
-                temp = temp/s;
-                e++;
-            }
-            Ary[e] = temp % s;
-            if (Ary[v-1] == u) {
-                a_index[w] = a;
-                w++;
-            }
-        }
-
-        // set the decode matrix valuye
-        for (j=0; j < r; j++)
-            for (a=0; a < l/s; a++){
-                for (b=0; b < l; b++)
-                    leftMatrix[j*(l/s)*l + a*l + b] = MSRMatrix[j*l*n*l + a_index[a]*n*l + errorTip*l + b];
-                int pp=0;
-                for (p=0; p < n; p++){
-                    if (p == errorTip) {
-                        continue;
-                    }
-                    for(b=0; b < l/r; b++){
-                        tmpMatrix[j*l/s*(n-1)*l/s + a*(n-1)*l/s + pp*l/r + b] =
-                                MSRMatrix[j*l*n*l + a_index[a]*n*l + p*l + a_index[b]];
-                    }
-                    pp++;
-                }
-            }
-        // DumpUtil.dumpMatrix(tmpMatrix, l, (n-1)*l/r);
-        GF256.gfInvertMatrix(leftMatrix, invertleftMatrix, l);
-        // generate decode matrix
-        byte tmp;
-        for (i=0; i < l; i++)
-            for (j=0; j < (n-1)*l/r; j++) {
-                tmp = 0;
-                for (e=0; e < l; e++)
-                    tmp ^= GF256.gfMul(invertleftMatrix[i*l + e], tmpMatrix[e*(n-1)*l/r + j]);
-                decodeMatrix[i*(n-1)*l/r + j] = tmp;
-            }
+        RSUtil.genMSRRepairMatrix(MSRMatrix, decodeMatrix, n, k, erasedIndexes[0]);
     }
 
     public static int[][] searchData(int[] erasedIndexes, int n, int k){
@@ -384,8 +351,9 @@ public class MSRRawDecoder extends RawErasureDecoder {
         int v, u;
         int r = n - k;
         int s = r;
-        int m = n / s;
-        int l = (int)Math.pow(s, m);
+        // digits of the positions before shortening, see RSUtil
+        int m = (n + RSUtil.getMSRNumVirtualUnits(n, k)) / s;
+        int l = RSUtil.getMSRSubPackets(n, k);
         int[][] dataIndexes = new int[n][];
         for (i=0; i < n; i++)
             dataIndexes[i] = new int[l];
@@ -418,10 +386,11 @@ public class MSRRawDecoder extends RawErasureDecoder {
         } else {
             // single node recovery
             for (i=0; i < n; i++)
-                for (j=0; j < n; j++)
+                for (j=0; j < l; j++)
                     dataIndexes[i][j] = 0;
-            u = erasedIndexes[0] % s;
-            v = (erasedIndexes[0]-u)/s + 1;
+            int pos = RSUtil.getMSRNodePosition(erasedIndexes[0], n, k);
+            u = pos % s;
+            v = (pos-u)/s + 1;
             int Ary[] = new int[m];
             int temp;
             for (i=0; i < l; i++) {
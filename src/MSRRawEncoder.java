@@ -16,6 +16,7 @@
  * limitations under the License.
  */
 
+import util.CodingSchedule;
 import util.DumpUtil;
 import util.GF256;
 import util.RSUtil;
@@ -32,7 +33,7 @@ public class MSRRawEncoder  extends RawErasureEncoder{
     // relevant to schema and won't change during encode calls.
     private byte[] encodeMatrix;
     private byte[] MSRMatrix;
-    private byte[] gfTables;
+    private CodingSchedule schedule;
      /**
      * Array of input tables generated from coding coefficients previously.
      * Must be of size 32*k*rows
@@ -42,25 +43,21 @@ public class MSRRawEncoder  extends RawErasureEncoder{
     public MSRRawEncoder(ErasureCoderOptions coderOptions) {
         super(coderOptions);
 
-        if (getNumAllUnits() >= RSUtil.GF.getFieldSize()) {
+        // the coefficients are the positions before shortening, all distinct
+        if (getNumAllUnits() + RSUtil.getMSRNumVirtualUnits(getNumAllUnits(),
+                getNumDataUnits()) >= RSUtil.GF.getFieldSize()) {
             System.out.println(
                     "Invalid numDataUnits and numParityUnits");
         }
         // generate the encodeMatrix
-        assert getNumAllUnits() % getNumParityUnits() == 0;
-        int m = getNumAllUnits() / getNumParityUnits();
-        int s = getNumParityUnits();
-        int l = (int)Math.pow(s, m);
-        encodeMatrix = new byte[getNumAllUnits() * getNumDataUnits() * l * l];
-        MSRMatrix = new byte[getNumParityUnits() * getNumAllUnits() * l * l];
-        // RSUtil.genCauchyMatrix(encodeMatrix, getNumAllUnits(), getNumDataUnits());
-        RSUtil.genMSRMatrix(MSRMatrix, getNumAllUnits(), getNumDataUnits());
+        // shared with all the MSR coders of this schema
+        CoderTables tables = CoderRegistry.getMSRTables(getNumDataUnits(),
+                getNumParityUnits());
+        encodeMatrix = tables.encodeMatrix;
+        MSRMatrix = tables.MSRMatrix;
         // DumpUtil.dumpMatrix(MSRMatrix, getNumParityUnits()*l, getNumAllUnits()*l);
-        RSUtil.genMSREncodeMatrix(MSRMatrix, encodeMatrix, getNumAllUnits(), getNumDataUnits());
         // DumpUtil.dumpMatrix(encodeMatrix, getNumAllUnits()*l, getNumDataUnits()*l);
-        gfTables = new byte[getNumAllUnits() * getNumDataUnits() * l * l * 32];
-        RSUtil.initTables(getNumDataUnits() * l, getNumParityUnits() * l, encodeMatrix,
-                getNumDataUnits() * l * getNumDataUnits() * l, gfTables);
+        schedule = tables.schedule;
     }
 
     private void MSREncodeData(byte[] encodeMatrix, int encodeLen, byte[][] inputs,
@@ -68,9 +65,7 @@ public class MSRRawEncoder  extends RawErasureEncoder{
         int n = getNumAllUnits();
         int k = getNumDataUnits();
         int r = n - k;
-        int s = r;
-        int m = n/s;
-        int l = (int)Math.pow(s, m);
+        int l = RSUtil.getMSRSubPackets(n, k);
         int numInputs = inputs.length;
         int numOutputs = outputs.length;
 
@@ -92,6 +87,31 @@ public class MSRRawEncoder  extends RawErasureEncoder{
         }
     }
 
+    /**
+     * Every sub-packet is a buffer of its own here, so direct buffers, e.g.
+     * the mappings of MappedBlockEncoder, are coded in place as a single
+     * slice each instead of being staged in heap arrays.
+     */
+    @Override
+    protected void doEncode(ByteBufferEncodingState encodingState) {
+        int len = encodingState.encodeLength;
+        int[] inputOffsets = new int[encodingState.inputs.length];
+        int[] outputOffsets = new int[encodingState.outputs.length];
+        for (int i=0; i<inputOffsets.length; i++) {
+            inputOffsets[i] = encodingState.inputs[i].position();
+        }
+        for (int i=0; i<outputOffsets.length; i++) {
+            outputOffsets[i] = encodingState.outputs[i].position();
+        }
+        CoderUtil.resetOutputBuffers(encodingState.outputs, len);
+        RSUtil.encodeDataSparseStrided(schedule, len, 1, len,
+                encodingState.inputs, inputOffsets,
+                encodingState.outputs, outputOffsets);
+        getCounters().addKernelRun(null, schedule.getNumInputs(),
+                schedule.getNumInputs()/getNumDataUnits(),
+                schedule.getNumOutputs(), len, schedule.getNumNonZeros());
+    }
+
     @Override
     protected void doEncode(ByteArrayEncodingState encodingState) {
         // set output buffer to zero
@@ -100,9 +120,13 @@ public class MSRRawEncoder  extends RawErasureEncoder{
                 encodingState.encodeLength);
 
         // MSREncodeData(encodeMatrix, encodingState.encodeLength, encodingState.inputs, encodingState.outputs);
-        RSUtil.encodeData(gfTables, encodingState.encodeLength,
+        RSUtil.encodeDataSparse(schedule, encodingState.encodeLength,
                 encodingState.inputs,
                 encodingState.inputOffsets, encodingState.outputs,
                 encodingState.outputOffsets);
+        getCounters().addKernelRun(null, schedule.getNumInputs(),
+                schedule.getNumInputs()/getNumDataUnits(),
+                schedule.getNumOutputs(), encodingState.encodeLength,
+                schedule.getNumNonZeros());
     }
 }
@@ -0,0 +1,163 @@
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes a stripe for MSRNewEncoder while its data units are still
+ * arriving. Every sliceUnit band of MSRNewEncoder only depends on the same
+ * band of the k data units, so data can be appended to each unit in pieces
+ * of any size, and every batch of bands is encoded as soon as all k units
+ * have it. The parity of each batch goes to a ParityListener, in order.
+ *
+ * Appended data is held in chunks of batchSize bytes until its batch is
+ * encoded, so the memory used is one chunk per unit plus however far the
+ * units get ahead of each other. Writers that append the units round robin
+ * keep it at about k chunks.
+ */
+public class MSRStreamEncoder {
+
+    /**
+     * Receives the parity of the stripe, one batch at a time.
+     */
+    public interface ParityListener {
+        /**
+         * @param offset offset of the batch in every parity unit
+         * @param parity r arrays holding the batch of each parity unit in
+         *               [0, len); only valid during the call
+         * @param len bytes in the batch, batchSize except for the last one
+         */
+        void onParity(long offset, byte[][] parity, int len)
+                throws IOException;
+    }
+
+    private final MSRNewEncoder encoder;
+    private final ParityListener listener;
+    private final int batchSize;
+    private final int k;
+    private final List<ArrayDeque<byte[]>> chunks = new ArrayList<>();
+    private final ArrayDeque<byte[]> freeChunks = new ArrayDeque<>();
+    private final long[] appended;
+    private final ByteBuffer[] inputs;
+    private final ByteBuffer[] outputs;
+    private final byte[][] parity;
+    private long encoded;
+    private boolean finished;
+
+    /**
+     * @param encoder the encoder of the stripe
+     * @param batchSize bytes of every unit to encode at once, a multiple of
+     *                  the sliceUnit of the encoder
+     * @param listener receives the parity
+     */
+    public MSRStreamEncoder(MSRNewEncoder encoder, int batchSize,
+                            ParityListener listener) {
+        Preconditions.checkArgument(batchSize > 0 &&
+                batchSize%encoder.sliceUnit == 0,
+                "batchSize must be a multiple of %s", encoder.sliceUnit);
+        this.encoder = encoder;
+        this.listener = listener;
+        this.batchSize = batchSize;
+        this.k = encoder.getNumDataUnits();
+        int r = encoder.getNumParityUnits();
+        for (int i=0; i<k; i++) {
+            chunks.add(new ArrayDeque<byte[]>());
+        }
+        appended = new long[k];
+        inputs = new ByteBuffer[k];
+        outputs = new ByteBuffer[r];
+        parity = new byte[r][batchSize];
+    }
+
+    /**
+     * Append the next len bytes of data unit unit, and encode every batch
+     * that all the units have now.
+     */
+    public void append(int unit, byte[] data, int offset, int len)
+            throws IOException {
+        Preconditions.checkState(!finished, "Already finished");
+        Preconditions.checkElementIndex(unit, k);
+        while (len > 0) {
+            int fill = (int) (appended[unit]%batchSize);
+            if (fill == 0) {
+                chunks.get(unit).addLast(takeChunk());
+            }
+            int n = Math.min(len, batchSize - fill);
+            System.arraycopy(data, offset, chunks.get(unit).peekLast(), fill, n);
+            appended[unit] += n;
+            offset += n;
+            len -= n;
+        }
+        while (getAvailable() >= batchSize) {
+            encodeBatch(batchSize);
+        }
+    }
+
+    public void append(int unit, byte[] data) throws IOException {
+        append(unit, data, 0, data.length);
+    }
+
+    /**
+     * Encode what is left. All the units must have the same length by now,
+     * a multiple of sliceUnit.
+     */
+    public void finish() throws IOException {
+        Preconditions.checkState(!finished, "Already finished");
+        for (int i=1; i<k; i++) {
+            Preconditions.checkState(appended[i] == appended[0],
+                    "Data unit %s has %s bytes, unit 0 has %s", i,
+                    appended[i], appended[0]);
+        }
+        int left = (int) (appended[0] - encoded);
+        Preconditions.checkState(left%encoder.sliceUnit == 0,
+                "Stripe does not end on a band of %s bytes", encoder.sliceUnit);
+        if (left > 0) {
+            encodeBatch(left);
+        }
+        finished = true;
+        freeChunks.clear();
+    }
+
+    /**
+     * @return bytes of every unit encoded so far
+     */
+    public long getEncodedLength() {
+        return encoded;
+    }
+
+    /**
+     * @return bytes that every data unit has, but are not encoded yet
+     */
+    private long getAvailable() {
+        long available = appended[0];
+        for (int i=1; i<k; i++) {
+            available = Math.min(available, appended[i]);
+        }
+        return available - encoded;
+    }
+
+    private void encodeBatch(int len) throws IOException {
+        byte[][] batch = new byte[k][];
+        for (int i=0; i<k; i++) {
+            batch[i] = chunks.get(i).pollFirst();
+            inputs[i] = ByteBuffer.wrap(batch[i], 0, len);
+        }
+        for (int i=0; i<outputs.length; i++) {
+            outputs[i] = ByteBuffer.wrap(parity[i], 0, len);
+        }
+        encoder.encode(inputs, outputs);
+        listener.onParity(encoded, parity, len);
+        encoded += len;
+        for (int i=0; i<k; i++) {
+            freeChunks.addLast(batch[i]);
+        }
+    }
+
+    private byte[] takeChunk() {
+        byte[] chunk = freeChunks.pollFirst();
+        return chunk != null ? chunk : new byte[batchSize];
+    }
+}
@@ -0,0 +1,136 @@
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Encodes whole node blocks kept in local files, the k data blocks into r
+ * parity blocks, by mapping windows of the files and running the ByteBuffer
+ * encode path right over the mappings. Nothing is copied through heap
+ * arrays, and the page cache does the reading and writing back, which fits
+ * re-encoding data that is on local disks already, e.g. turning replicated
+ * cold data into EC.
+ *
+ * A block holds the cells of its unit one after another, the way
+ * hadoopEC_RS and hadoopEC_MSR number them: a stripe takes subPackets
+ * consecutive cells of every block, given to the encoder as subPackets
+ * inputs per unit (l for MSRRawEncoder, 1 otherwise).
+ */
+public class MappedBlockEncoder {
+    /**
+     * Bytes of every block mapped at a time, rounded down to whole stripes.
+     */
+    public static final String WINDOW_SIZE_KEY = "mapped.encode.window.size";
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final RawErasureEncoder encoder;
+    private final int subPackets;
+    private final int cellSize;
+    private final int stripeSize;
+    private final int windowSize;
+
+    public MappedBlockEncoder(RawErasureEncoder encoder, int subPackets,
+                              int cellSize) {
+        Preconditions.checkArgument(subPackets > 0 && cellSize > 0,
+                "Invalid subPackets %s or cellSize %s", subPackets, cellSize);
+        this.encoder = encoder;
+        this.subPackets = subPackets;
+        this.cellSize = cellSize;
+        this.stripeSize = subPackets * cellSize;
+        int window = Integer.getInteger(WINDOW_SIZE_KEY, DEFAULT_WINDOW_SIZE);
+        this.windowSize = Math.max(1, window / stripeSize) * stripeSize;
+    }
+
+    /**
+     * Encode the data blocks into the parity blocks, which are created or
+     * replaced, and forced to disk before returning.
+     * @return bytes of every block encoded
+     */
+    public long encode(Path[] dataBlocks, Path[] parityBlocks)
+            throws IOException {
+        int numData = encoder.getNumDataUnits();
+        int numParity = encoder.getNumParityUnits();
+        Preconditions.checkArgument(dataBlocks.length == numData,
+                "Invalid data blocks: %s", dataBlocks.length);
+        Preconditions.checkArgument(parityBlocks.length == numParity,
+                "Invalid parity blocks: %s", parityBlocks.length);
+
+        FileChannel[] data = new FileChannel[dataBlocks.length];
+        FileChannel[] parity = new FileChannel[parityBlocks.length];
+        try {
+            for (int i=0; i<data.length; i++) {
+                data[i] = FileChannel.open(dataBlocks[i], StandardOpenOption.READ);
+            }
+            long blockLen = data[0].size();
+            for (int i=1; i<data.length; i++) {
+                if (data[i].size() != blockLen) {
+                    throw new IOException(dataBlocks[i] + " has " + data[i].size() +
+                            " bytes, " + dataBlocks[0] + " has " + blockLen);
+                }
+            }
+            if (blockLen%stripeSize != 0) {
+                throw new IOException("Blocks of " + blockLen +
+                        " bytes are not whole stripes of " + stripeSize);
+            }
+            for (int i=0; i<parity.length; i++) {
+                parity[i] = FileChannel.open(parityBlocks[i],
+                        StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+
+            ByteBuffer[] inputs = new ByteBuffer[numData*subPackets];
+            ByteBuffer[] outputs = new ByteBuffer[numParity*subPackets];
+            MappedByteBuffer[] inMaps = new MappedByteBuffer[data.length];
+            MappedByteBuffer[] outMaps = new MappedByteBuffer[parity.length];
+            for (long pos=0; pos<blockLen; pos+=windowSize) {
+                int len = (int) Math.min(windowSize, blockLen - pos);
+                for (int i=0; i<data.length; i++) {
+                    inMaps[i] = data[i].map(FileChannel.MapMode.READ_ONLY, pos, len);
+                }
+                // mapping past the end grows the parity files
+                for (int i=0; i<parity.length; i++) {
+                    outMaps[i] = parity[i].map(FileChannel.MapMode.READ_WRITE, pos, len);
+                }
+                for (int off=0; off<len; off+=stripeSize) {
+                    sliceCells(inMaps, off, inputs);
+                    sliceCells(outMaps, off, outputs);
+                    encoder.encode(inputs, outputs);
+                }
+                for (MappedByteBuffer outMap : outMaps) {
+                    outMap.force();
+                }
+            }
+            return blockLen;
+        } finally {
+            close(data);
+            close(parity);
+        }
+    }
+
+    /**
+     * Point cells at the cells of the stripe at offset off of the mappings.
+     */
+    private void sliceCells(MappedByteBuffer[] maps, int off, ByteBuffer[] cells) {
+        for (int i=0; i<maps.length; i++) {
+            for (int e=0; e<subPackets; e++) {
+                ByteBuffer cell = maps[i].duplicate();
+                cell.position(off + e*cellSize);
+                cell.limit(off + (e+1)*cellSize);
+                cells[i*subPackets + e] = cell.slice();
+            }
+        }
+    }
+
+    private static void close(FileChannel[] channels) throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
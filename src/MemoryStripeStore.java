@@ -0,0 +1,62 @@
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the files in memory, for runs without any I/O. Files are copied in
+ * on write and out on read, like the other stores.
+ */
+public class MemoryStripeStore implements StripeStore {
+    private final ConcurrentMap<String, byte[]> files =
+            new ConcurrentHashMap<>();
+
+    @Override
+    public void write(String path, byte[] data, int offset, int len) {
+        files.put(path, Arrays.copyOfRange(data, offset, offset + len));
+    }
+
+    private byte[] get(String path) throws FileNotFoundException {
+        byte[] fileData = files.get(path);
+        if (fileData == null) {
+            throw new FileNotFoundException(path);
+        }
+        return fileData;
+    }
+
+    @Override
+    public byte[] read(String path) throws IOException {
+        return get(path).clone();
+    }
+
+    @Override
+    public void readFully(String path, long position, byte[] buf, int offset,
+                          int len) throws IOException {
+        byte[] fileData = get(path);
+        if (position < 0 || position + len > fileData.length) {
+            throw new EOFException(path + " has " + fileData.length +
+                    " bytes, reading " + len + " at " + position);
+        }
+        System.arraycopy(fileData, (int) position, buf, offset, len);
+    }
+
+    @Override
+    public void delete(String path) {
+        String dir = path.endsWith("/") ? path : path + "/";
+        Iterator<String> it = files.keySet().iterator();
+        while (it.hasNext()) {
+            String file = it.next();
+            if (file.equals(path) || file.startsWith(dir)) {
+                it.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        files.clear();
+    }
+}
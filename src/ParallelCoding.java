@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Intra-stripe parallelism for the raw coders. Every output byte of a coder
+ * only depends on the input bytes at the same position, so a stripe can be
+ * cut into disjoint ranges of its units and the ranges coded concurrently,
+ * with byte-identical results.
+ *
+ * Ranges are cut at multiples of the coder's alignment (the sliceUnit band
+ * for the MSRNew coders) and are about CHUNK_SIZE_KEY bytes per unit, large
+ * enough to amortize a task and small enough to stay cache resident.
+ */
+final class ParallelCoding {
+  /**
+   * Threads of the pool the coders use by default; 0, the default, keeps
+   * coding on the calling thread.
+   */
+  public static final String PARALLELISM_KEY = "coder.parallelism";
+  public static final String CHUNK_SIZE_KEY = "coder.parallel.chunk.size";
+  private static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+  private static final int CHUNK_SIZE =
+      Integer.getInteger(CHUNK_SIZE_KEY, DEFAULT_CHUNK_SIZE);
+  private static final ForkJoinPool DEFAULT_POOL = createDefaultPool();
+
+  /**
+   * Codes the range [start, start + len) of every unit.
+   */
+  interface RangeCoder {
+    void code(int start, int len) throws IOException;
+  }
+
+  private ParallelCoding() {
+    // No called
+  }
+
+  private static ForkJoinPool createDefaultPool() {
+    int parallelism = Integer.getInteger(PARALLELISM_KEY, 0);
+    return parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+  }
+
+  /**
+   * @return the pool set up by PARALLELISM_KEY, or null
+   */
+  static ForkJoinPool getDefaultPool() {
+    return DEFAULT_POOL;
+  }
+
+  /**
+   * @return the range length per task for the given alignment
+   */
+  static int getChunkSize(int alignment) {
+    int chunks = Math.max(1, (CHUNK_SIZE + alignment - 1) / alignment);
+    return chunks * alignment;
+  }
+
+  /**
+   * Code dataLen bytes of every unit, in parallel on pool when it is set and
+   * the data spans more than one chunk, else on the calling thread.
+   */
+  static void code(ForkJoinPool pool, int dataLen, int alignment,
+      RangeCoder coder) throws IOException {
+    int chunkSize = getChunkSize(alignment);
+    if (pool == null || dataLen <= chunkSize) {
+      coder.code(0, dataLen);
+      return;
+    }
+
+    try {
+      pool.invoke(new RangeTask(coder, 0, dataLen, chunkSize));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Halves its range until it is at most one chunk, the split points
+   * staying on chunk boundaries.
+   */
+  private static final class RangeTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final RangeCoder coder;
+    private final int start;
+    private final int len;
+    private final int chunkSize;
+
+    RangeTask(RangeCoder coder, int start, int len, int chunkSize) {
+      this.coder = coder;
+      this.start = start;
+      this.len = len;
+      this.chunkSize = chunkSize;
+    }
+
+    @Override
+    protected void compute() {
+      if (len <= chunkSize) {
+        try {
+          coder.code(start, len);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        return;
+      }
+      int numChunks = (len + chunkSize - 1) / chunkSize;
+      int half = (numChunks / 2) * chunkSize;
+      invokeAll(new RangeTask(coder, start, half, chunkSize),
+          new RangeTask(coder, start + half, len - half, chunkSize));
+    }
+  }
+}
@@ -16,6 +16,8 @@
  * limitations under the License.
  */
 
+import util.DecodePlan;
+import util.DecodePlanCache;
 import util.DumpUtil;
 import util.GF256;
 import util.RSUtil;
@@ -48,6 +50,8 @@ public class RSRawDecoder extends RawErasureDecoder {
   private int[] validIndexes;
   private int numErasedDataUnits;
   private boolean[] erasureFlags;
+  private DecodePlan plan;
+  private final DecodePlanCache planCache = DecodePlanCache.getInstance();
 
   public RSRawDecoder(ErasureCoderOptions coderOptions) {
     super(coderOptions);
@@ -58,45 +62,92 @@ public class RSRawDecoder extends RawErasureDecoder {
               "Invalid getNumDataUnits() and numParityUnits");
     }
 
-    encodeMatrix = new byte[numAllUnits * getNumDataUnits()];
-    if (isUsePCM())
-      RSUtil.genCauchyMatrixPCM(encodeMatrix, numAllUnits, getNumDataUnits());
-    else
-      RSUtil.genCauchyMatrix(encodeMatrix, numAllUnits, getNumDataUnits());
+    // shared with all the RS coders of this schema, read only
+    encodeMatrix = CoderRegistry.getRSTables(getNumDataUnits(),
+        getNumParityUnits(), isUsePCM()).encodeMatrix;
     if (allowVerboseDump()) {
       DumpUtil.dumpMatrix(encodeMatrix, getNumDataUnits(), numAllUnits);
     }
   }
 
   @Override
-  protected void doDecode(ByteArrayDecodingState decodingState) {
+  protected DecodePlan prepareDecodePlan(
+      ByteArrayDecodingState decodingState) {
+    prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
+    return plan;
+  }
+
+  @Override
+  protected void doDecode(ByteArrayDecodingState decodingState,
+                          DecodePlan plan) {
     int dataLen = decodingState.decodeLength;
     CoderUtil.resetOutputBuffers(decodingState.outputs,
         decodingState.outputOffsets, dataLen);
-    prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
 
-    byte[][] realInputs = new byte[getNumDataUnits()][];
-    int[] realInputOffsets = new int[getNumDataUnits()];
+    int[] validIndexes = plan.getValidIndexes();
+    decodingState.ensureReadInputs(getNumDataUnits());
+    byte[][] realInputs = decodingState.readInputs;
+    int[] realInputOffsets = decodingState.readInputOffsets;
     for (int i = 0; i < getNumDataUnits(); i++) {
       realInputs[i] = decodingState.inputs[validIndexes[i]];
       realInputOffsets[i] = decodingState.inputOffsets[validIndexes[i]];
     }
-    RSUtil.encodeData(gfTables, dataLen, realInputs, realInputOffsets,
-        decodingState.outputs, decodingState.outputOffsets);
+    RSUtil.encodeData(plan.getGfTables(), dataLen, realInputs,
+        realInputOffsets, decodingState.outputs, decodingState.outputOffsets);
+    int numOutputs = decodingState.outputs.length;
+    getCounters().addKernelRun(validIndexes, getNumDataUnits(), 1,
+        numOutputs, dataLen, getNumDataUnits() * numOutputs);
+  }
+
+  /**
+   * Direct buffers are coded in place by the ByteBuffer kernel of RSUtil.
+   */
+  @Override
+  protected void doDecode(ByteBufferDecodingState decodingState) {
+    int dataLen = decodingState.decodeLength;
+    CoderUtil.resetOutputBuffers(decodingState.outputs, dataLen);
+    prepareDecoding(decodingState.inputs, decodingState.erasedIndexes);
+
+    ByteBuffer[] realInputs = new ByteBuffer[getNumDataUnits()];
+    for (int i = 0; i < getNumDataUnits(); i++) {
+      realInputs[i] = decodingState.inputs[validIndexes[i]];
+    }
+    RSUtil.encodeData(gfTables, realInputs, decodingState.outputs);
+    int numOutputs = decodingState.outputs.length;
+    getCounters().addKernelRun(validIndexes, getNumDataUnits(), 1,
+        numOutputs, dataLen, getNumDataUnits() * numOutputs);
   }
 
   private <T> void prepareDecoding(T[] inputs, int[] erasedIndexes) {
-    int[] tmpValidIndexes = CoderUtil.getValidIndexes(inputs);
+    getCounters().addCall();
+    getCounters().addSubPacketsRead(getNumDataUnits());
     if (Arrays.equals(this.cachedErasedIndexes, erasedIndexes) &&
-        Arrays.equals(this.validIndexes, tmpValidIndexes)) {
+        CoderUtil.hasValidIndexes(inputs, this.validIndexes)) {
+      getCounters().addPlanCacheHit();
       return; // Optimization. Nothing to do
     }
+    int[] tmpValidIndexes = CoderUtil.getValidIndexes(inputs);
     this.cachedErasedIndexes =
             Arrays.copyOf(erasedIndexes, erasedIndexes.length);
     this.validIndexes =
             Arrays.copyOf(tmpValidIndexes, tmpValidIndexes.length);
 
-    processErasures(erasedIndexes);
+    // Plans are shared with the other decoders of this schema
+    DecodePlanCache.Key key = new DecodePlanCache.Key("RS",
+        getNumDataUnits(), getNumParityUnits(), isUsePCM(),
+        erasedIndexes, validIndexes);
+    DecodePlan plan = planCache.get(key);
+    if (plan == null) {
+      getCounters().addPlanCacheMiss();
+      processErasures(erasedIndexes);
+      plan = planCache.put(key,
+          new DecodePlan(validIndexes, decodeMatrix, gfTables));
+    } else {
+      getCounters().addPlanCacheHit();
+    }
+    this.plan = plan;
+    this.decodeMatrix = plan.getDecodeMatrix();
+    this.gfTables = plan.getGfTables();
   }
 
   private void processErasures(int[] erasedIndexes) {
@@ -172,6 +223,8 @@ public class RSRawDecoder extends RawErasureDecoder {
   // Generate PCM decode matrix from encode matrix
   private void generatePCMDecodeMatrix(int [] erasedIndexes) {
     int i, j, p;
+    // eliminate on a copy, the result must only depend on erasedIndexes
+    byte[] encodeMatrix = this.encodeMatrix.clone();
     // byte[] tmpMatrix = new byte[getNumParityUnits() * getNumAllUnits()];
     int k = getNumDataUnits();
     int n = getNumAllUnits();
@@ -43,14 +43,14 @@ public class RSRawEncoder extends RawErasureEncoder {
           "Invalid numDataUnits and numParityUnits");
     }
 
-    encodeMatrix = new byte[getNumAllUnits() * getNumDataUnits()];
-    RSUtil.genCauchyMatrix(encodeMatrix, getNumAllUnits(), getNumDataUnits());
+    // shared with all the RS coders of this schema
+    CoderTables tables = CoderRegistry.getRSTables(getNumDataUnits(),
+        getNumParityUnits(), false);
+    encodeMatrix = tables.encodeMatrix;
     if (allowVerboseDump()) {
       DumpUtil.dumpMatrix(encodeMatrix, getNumDataUnits(), getNumAllUnits());
     }
-    gfTables = new byte[getNumAllUnits() * getNumDataUnits() * 32];
-    RSUtil.initTables(getNumDataUnits(), getNumParityUnits(), encodeMatrix,
-        getNumDataUnits() * getNumDataUnits(), gfTables);
+    gfTables = tables.gfTables;
     if (allowVerboseDump()) {
       System.out.println(DumpUtil.bytesToHex(gfTables, -1));
     }
@@ -65,5 +65,21 @@ public class RSRawEncoder extends RawErasureEncoder {
         encodingState.inputs,
         encodingState.inputOffsets, encodingState.outputs,
         encodingState.outputOffsets);
+    getCounters().addKernelRun(null, getNumDataUnits(), 1,
+        getNumParityUnits(), encodingState.encodeLength,
+        getNumDataUnits() * getNumParityUnits());
+  }
+
+  /**
+   * Direct buffers are coded in place by the ByteBuffer kernel of RSUtil.
+   */
+  @Override
+  protected void doEncode(ByteBufferEncodingState encodingState) {
+    CoderUtil.resetOutputBuffers(encodingState.outputs,
+        encodingState.encodeLength);
+    RSUtil.encodeData(gfTables, encodingState.inputs, encodingState.outputs);
+    getCounters().addKernelRun(null, getNumDataUnits(), 1,
+        getNumParityUnits(), encodingState.encodeLength,
+        getNumDataUnits() * getNumParityUnits());
   }
 }
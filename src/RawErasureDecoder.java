@@ -16,7 +16,13 @@
  * limitations under the License.
  */
 
+import util.CoderCounters;
+import util.CoderMetrics;
+import util.DecodePlan;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An abstract raw erasure decoder that's to be inherited by new decoders.
@@ -37,9 +43,13 @@ import java.io.IOException;
 public abstract class RawErasureDecoder {
 
   private final ErasureCoderOptions coderOptions;
+  private ForkJoinPool parallelPool = ParallelCoding.getDefaultPool();
+  private final CoderCounters counters;
 
   public RawErasureDecoder(ErasureCoderOptions coderOptions) {
     this.coderOptions = coderOptions;
+    this.counters = CoderCounters.create(getClass().getSimpleName(),
+        getNumDataUnits(), getNumParityUnits());
   }
 
   /**
@@ -53,14 +63,204 @@ public abstract class RawErasureDecoder {
    */
   public void decode(byte[][] inputs, int[] erasedIndexes, byte[][] outputs)
       throws IOException {
-    ByteArrayDecodingState decodingState = new ByteArrayDecodingState(this,
-        inputs, erasedIndexes, outputs);
+    ByteArrayDecodingState decodingState = new ByteArrayDecodingState(
+        this, inputs, erasedIndexes, outputs);
+
+    if (decodingState.decodeLength == 0) {
+      return;
+    }
+    decode(decodingState);
+  }
+
+  /**
+   * Decode like decode(inputs, erasedIndexes, outputs), with the state kept
+   * in context rather than made for the call. Decoding on the calling
+   * thread, without a parallel pool, then allocates nothing beyond what
+   * doDecode() does, which is nothing for RSRawDecoder once it has the plan
+   * of the erasure pattern.
+   *
+   * @param context from createContext() of this decoder
+   * @throws IOException if the decoder is closed.
+   */
+  public void decode(byte[][] inputs, int[] erasedIndexes, byte[][] outputs,
+      CodingContext context) throws IOException {
+    ByteArrayDecodingState decodingState =
+        context.resetDecodingState(this, inputs, erasedIndexes, outputs);
 
     if (decodingState.decodeLength == 0) {
       return;
     }
+    decode(decodingState);
+  }
+
+  /**
+   * @return a new context for decode(inputs, erasedIndexes, outputs,
+   * context) calls of one thread on this decoder
+   */
+  public CodingContext createContext() {
+    return new CodingContext(this);
+  }
+
+  /**
+   * Decode with ByteBuffer inputs, the way HDFS striped I/O hands them over.
+   * Heap buffers are decoded through their backing arrays like the byte[]
+   * version, direct buffers by doDecode(ByteBufferDecodingState).
+   *
+   * @param inputs input buffers to read data from, null where erased or not
+   *               to be read; the others are consumed by the call
+   * @param erasedIndexes indexes of erased units in the inputs array
+   * @param outputs output buffers to put decoded data into according to
+   *                erasedIndexes, positions are kept so they are ready for
+   *                read after the call
+   * @throws IOException if the decoder is closed.
+   */
+  public void decode(ByteBuffer[] inputs, int[] erasedIndexes,
+      ByteBuffer[] outputs) throws IOException {
+    ByteBufferDecodingState decodingState = new ByteBufferDecodingState(
+        this, inputs, erasedIndexes, outputs);
+
+    int dataLen = decodingState.decodeLength;
+    if (dataLen == 0) {
+      return;
+    }
+
+    int[] outputPositions = new int[outputs.length];
+    for (int i = 0; i < outputs.length; i++) {
+      outputPositions[i] = outputs[i].position();
+    }
+    if (decodingState.usingDirectBuffer) {
+      doDecode(decodingState);
+    } else {
+      decode(decodingState.convertToByteArrayState());
+    }
+
+    for (int i = 0; i < inputs.length; i++) {
+      if (inputs[i] != null) {
+        inputs[i].position(inputs[i].position() + dataLen);
+      }
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i].position(outputPositions[i]);
+    }
+  }
+
+  /**
+   * Decode a batch of stripes sharing one erasure pattern. The plan is
+   * prepared once for the batch, rather than validated and looked up for
+   * every stripe as separate decode() calls would.
+   *
+   * @param inputs inputs[s] are the inputs of stripe s, null in the same
+   *               places for every stripe; stripes may differ in length
+   * @param erasedIndexes indexes of erased units, the same for every stripe
+   * @param outputs outputs[s] are the outputs of stripe s
+   * @throws IOException if the decoder is closed.
+   */
+  public void decodeBatch(byte[][][] inputs, int[] erasedIndexes,
+      byte[][][] outputs) throws IOException {
+    if (inputs.length != outputs.length) {
+      throw new IllegalArgumentException("Batch of " + inputs.length +
+          " inputs and " + outputs.length + " outputs");
+    }
+    if (inputs.length == 0) {
+      return;
+    }
+
+    if (CoderUtil.findFirstValidInput(inputs[0]) == null) {
+      throw new IllegalArgumentException("No valid input in stripe 0");
+    }
+    // every stripe is checked before any is decoded
+    int[] lengths = new int[inputs.length];
+    for (int s = 0; s < inputs.length; s++) {
+      if (inputs[s].length != inputs[0].length ||
+          outputs[s].length != outputs[0].length) {
+        throw new IllegalArgumentException("Stripe " + s + " has " +
+            inputs[s].length + " inputs and " + outputs[s].length +
+            " outputs, stripe 0 has " + inputs[0].length + " and " +
+            outputs[0].length);
+      }
+      for (int i = 0; i < inputs[0].length; i++) {
+        if ((inputs[s][i] == null) != (inputs[0][i] == null)) {
+          throw new IllegalArgumentException("Stripe " + s +
+              " is erased differently from stripe 0");
+        }
+      }
+      // erased as stripe 0, so it has a valid input
+      lengths[s] = CoderUtil.findFirstValidInput(inputs[s]).length;
+      for (int i = 0; i < inputs[s].length; i++) {
+        if (inputs[s][i] != null && inputs[s][i].length != lengths[s]) {
+          throw new IllegalArgumentException("Stripe " + s + " has inputs of " +
+              lengths[s] + " and " + inputs[s][i].length + " bytes");
+        }
+      }
+      for (int i = 0; i < outputs[s].length; i++) {
+        if (outputs[s][i] == null || outputs[s][i].length < lengths[s]) {
+          throw new IllegalArgumentException("Stripe " + s + " has output " +
+              i + " shorter than its " + lengths[s] + " bytes of inputs");
+        }
+      }
+    }
+
+    ByteArrayDecodingState first = new ByteArrayDecodingState(
+        this, inputs[0], erasedIndexes, outputs[0]);
+    DecodePlan plan = prepareDecodePlan(first);
+    // all zero, only read
+    int[] inputOffsets = new int[inputs[0].length];
+    int[] outputOffsets = new int[outputs[0].length];
+    for (int s = 0; s < inputs.length; s++) {
+      int len = lengths[s];
+      if (len > 0) {
+        decode(new ByteArrayDecodingState(this, len, erasedIndexes,
+            inputs[s], inputOffsets, outputs[s], outputOffsets), plan);
+      }
+    }
+  }
+
+  private void decode(final ByteArrayDecodingState decodingState)
+      throws IOException {
+    if (parallelPool == null) {
+      doDecode(decodingState);
+      return;
+    }
+    // The plan is prepared once here, the ranges only read it
+    decode(decodingState, prepareDecodePlan(decodingState));
+  }
 
-    doDecode(decodingState);
+  /**
+   * Decode with a prepared plan, in ranges on the parallel pool if any.
+   */
+  private void decode(final ByteArrayDecodingState decodingState,
+      final DecodePlan plan) throws IOException {
+    if (parallelPool == null) {
+      doDecode(decodingState, plan);
+      return;
+    }
+    ParallelCoding.code(parallelPool, decodingState.decodeLength,
+        getRangeAlignment(), new ParallelCoding.RangeCoder() {
+          @Override
+          public void code(int start, int len) throws IOException {
+            doDecode(decodingState.subRange(start, len), plan);
+          }
+        });
+  }
+
+  /**
+   * Set the pool decode() spreads a stripe over, or null to decode on the
+   * calling thread. Defaults to the pool set up by coder.parallelism.
+   */
+  public void setParallelPool(ForkJoinPool pool) {
+    this.parallelPool = pool;
+  }
+
+  public ForkJoinPool getParallelPool() {
+    return parallelPool;
+  }
+
+  /**
+   * Ranges handed to doDecode() by a parallel decode start and end at
+   * multiples of this, relative to the start of the units.
+   */
+  protected int getRangeAlignment() {
+    return 1;
   }
 
   /**
@@ -69,8 +269,70 @@ public abstract class RawErasureDecoder {
    * @param decodingState the decoding state
    * @throws IOException if the decoder is closed.
    */
-  protected abstract void doDecode(ByteArrayDecodingState decodingState)
-      throws IOException;
+  protected void doDecode(ByteArrayDecodingState decodingState)
+      throws IOException {
+    doDecode(decodingState, prepareDecodePlan(decodingState));
+  }
+
+  /**
+   * Perform the real decoding using direct buffers. By default they are
+   * copied to and from heap arrays for doDecode(ByteArrayDecodingState);
+   * decoders that can read direct buffers in place override this. Output
+   * positions may be left anywhere, decode() restores them.
+   * @param decodingState the decoding state
+   * @throws IOException if the decoder is closed.
+   */
+  protected void doDecode(ByteBufferDecodingState decodingState)
+      throws IOException {
+    int len = decodingState.decodeLength;
+    byte[][] inputs = new byte[decodingState.inputs.length][];
+    byte[][] outputs = new byte[decodingState.outputs.length][len];
+    for (int i = 0; i < inputs.length; i++) {
+      if (decodingState.inputs[i] != null) {
+        inputs[i] = new byte[len];
+        decodingState.inputs[i].duplicate().get(inputs[i]);
+        counters.addStagingBytes(len);
+      }
+    }
+    counters.addStagingBytes((long) outputs.length * len);
+    doDecode(new ByteArrayDecodingState(this, len,
+        decodingState.erasedIndexes, inputs, new int[inputs.length],
+        outputs, new int[outputs.length]));
+    for (int i = 0; i < outputs.length; i++) {
+      decodingState.outputs[i].duplicate().put(outputs[i]);
+    }
+  }
+
+  /**
+   * Prepare, or look up, the plan for the erasure pattern of decodingState.
+   * Only the pattern of null inputs and the erased indexes are looked at.
+   * @param decodingState the decoding state
+   * @return the plan to hand to doDecode()
+   */
+  protected abstract DecodePlan prepareDecodePlan(
+      ByteArrayDecodingState decodingState);
+
+  /**
+   * Decode with a prepared plan. Implementations must not change the state
+   * of the decoder here, so that disjoint ranges of one stripe can be decoded
+   * at the same time.
+   * @param decodingState the decoding state
+   * @param plan the plan from prepareDecodePlan() for this erasure pattern
+   * @throws IOException if the decoder is closed.
+   */
+  protected abstract void doDecode(ByteArrayDecodingState decodingState,
+      DecodePlan plan) throws IOException;
+
+  /**
+   * @return what this coder has done so far
+   */
+  public CoderMetrics getMetrics() {
+    return counters;
+  }
+
+  protected CoderCounters getCounters() {
+    return counters;
+  }
 
   public int getNumDataUnits() {
     return coderOptions.getNumDataUnits();
@@ -16,8 +16,12 @@
  * limitations under the License.
  */
 
+import util.CoderCounters;
+import util.CoderMetrics;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * An abstract raw erasure encoder that's to be inherited by new encoders.
@@ -38,9 +42,13 @@ import java.nio.ByteBuffer;
 public abstract class RawErasureEncoder {
 
   private final ErasureCoderOptions coderOptions;
+  private ForkJoinPool parallelPool = ParallelCoding.getDefaultPool();
+  private final CoderCounters counters;
 
   public RawErasureEncoder(ErasureCoderOptions coderOptions) {
     this.coderOptions = coderOptions;
+    this.counters = CoderCounters.create(getClass().getSimpleName(),
+        getNumDataUnits(), getNumParityUnits());
   }
 
   /**
@@ -54,12 +62,180 @@ public abstract class RawErasureEncoder {
     ByteArrayEncodingState baeState = new ByteArrayEncodingState(
         this, inputs, outputs);
 
-    int dataLen = baeState.encodeLength;
+    if (baeState.encodeLength == 0) {
+      return;
+    }
+    encode(baeState);
+  }
+
+  /**
+   * Encode like encode(inputs, outputs), with the state kept in context
+   * rather than made for the call. Encoding on the calling thread, without a
+   * parallel pool, then allocates nothing beyond what doEncode() does, which
+   * is nothing for RSRawEncoder.
+   *
+   * @param context from createContext() of this encoder
+   */
+  public void encode(byte[][] inputs, byte[][] outputs,
+      CodingContext context) throws IOException {
+    ByteArrayEncodingState baeState =
+        context.resetEncodingState(this, inputs, outputs);
+
+    if (baeState.encodeLength == 0) {
+      return;
+    }
+    encode(baeState);
+  }
+
+  /**
+   * @return a new context for encode(inputs, outputs, context) calls of one
+   * thread on this encoder
+   */
+  public CodingContext createContext() {
+    return new CodingContext(this);
+  }
+
+  /**
+   * Encode with ByteBuffer inputs, the way HDFS striped I/O hands them over.
+   * Heap buffers are encoded through their backing arrays like the byte[]
+   * version, direct buffers by doEncode(ByteBufferEncodingState).
+   *
+   * @param inputs input buffers to read data from, consumed by the call
+   * @param outputs output buffers to put the encoded data into, positions
+   *                are kept so they are ready for read after the call
+   */
+  public void encode(ByteBuffer[] inputs, ByteBuffer[] outputs)
+      throws IOException {
+    ByteBufferEncodingState bbeState = new ByteBufferEncodingState(
+        this, inputs, outputs);
+
+    int dataLen = bbeState.encodeLength;
     if (dataLen == 0) {
       return;
     }
 
-    doEncode(baeState);
+    int[] outputPositions = new int[outputs.length];
+    for (int i = 0; i < outputs.length; i++) {
+      outputPositions[i] = outputs[i].position();
+    }
+    if (bbeState.usingDirectBuffer) {
+      counters.addCall();
+      doEncode(bbeState);
+    } else {
+      encode(bbeState.convertToByteArrayState());
+    }
+
+    for (int i = 0; i < inputs.length; i++) {
+      inputs[i].position(inputs[i].position() + dataLen);
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i].position(outputPositions[i]);
+    }
+  }
+
+  /**
+   * Encode a batch of stripes as one call, without setting up a call for
+   * every stripe.
+   *
+   * @param inputs inputs[s] are the inputs of stripe s; stripes may differ
+   *               in length
+   * @param outputs outputs[s] are the outputs of stripe s
+   */
+  public void encodeBatch(byte[][][] inputs, byte[][][] outputs)
+      throws IOException {
+    if (inputs.length != outputs.length) {
+      throw new IllegalArgumentException("Batch of " + inputs.length +
+          " inputs and " + outputs.length + " outputs");
+    }
+    if (inputs.length == 0) {
+      return;
+    }
+
+    // every stripe is checked before any is encoded
+    int[] lengths = new int[inputs.length];
+    for (int s = 0; s < inputs.length; s++) {
+      if (inputs[s].length != inputs[0].length ||
+          outputs[s].length != outputs[0].length) {
+        throw new IllegalArgumentException("Stripe " + s + " has " +
+            inputs[s].length + " inputs and " + outputs[s].length +
+            " outputs, stripe 0 has " + inputs[0].length + " and " +
+            outputs[0].length);
+      }
+      for (int i = 0; i < inputs[s].length; i++) {
+        if (inputs[s][i] == null) {
+          throw new IllegalArgumentException("Stripe " + s +
+              " has no input " + i);
+        }
+      }
+      lengths[s] = inputs[s][0].length;
+      for (int i = 0; i < inputs[s].length; i++) {
+        if (inputs[s][i].length != lengths[s]) {
+          throw new IllegalArgumentException("Stripe " + s + " has inputs of " +
+              lengths[s] + " and " + inputs[s][i].length + " bytes");
+        }
+      }
+      for (int i = 0; i < outputs[s].length; i++) {
+        if (outputs[s][i] == null || outputs[s][i].length < lengths[s]) {
+          throw new IllegalArgumentException("Stripe " + s + " has output " +
+              i + " shorter than its " + lengths[s] + " bytes of inputs");
+        }
+      }
+    }
+
+    counters.addCall();
+    // all zero, only read
+    int[] inputOffsets = new int[inputs[0].length];
+    int[] outputOffsets = new int[outputs[0].length];
+    for (int s = 0; s < inputs.length; s++) {
+      int len = lengths[s];
+      if (len > 0) {
+        encodeRanges(new ByteArrayEncodingState(this, len, inputs[s],
+            inputOffsets, outputs[s], outputOffsets));
+      }
+    }
+  }
+
+  private void encode(ByteArrayEncodingState baeState) throws IOException {
+    counters.addCall();
+    encodeRanges(baeState);
+  }
+
+  /**
+   * Encode in ranges on the parallel pool if any.
+   */
+  private void encodeRanges(final ByteArrayEncodingState baeState)
+      throws IOException {
+    if (parallelPool == null) {
+      doEncode(baeState);
+      return;
+    }
+    ParallelCoding.code(parallelPool, baeState.encodeLength,
+        getRangeAlignment(), new ParallelCoding.RangeCoder() {
+          @Override
+          public void code(int start, int len) throws IOException {
+            doEncode(baeState.subRange(start, len));
+          }
+        });
+  }
+
+  /**
+   * Set the pool encode() spreads a stripe over, or null to encode on the
+   * calling thread. Defaults to the pool set up by coder.parallelism.
+   */
+  public void setParallelPool(ForkJoinPool pool) {
+    this.parallelPool = pool;
+  }
+
+  public ForkJoinPool getParallelPool() {
+    return parallelPool;
+  }
+
+  /**
+   * Ranges handed to doEncode() by a parallel encode start and end at
+   * multiples of this, relative to the start of the units.
+   */
+  protected int getRangeAlignment() {
+    return 1;
   }
 
   /**
@@ -70,6 +246,40 @@ public abstract class RawErasureEncoder {
   protected abstract void doEncode(ByteArrayEncodingState encodingState)
       throws IOException;
 
+  /**
+   * Perform the real encoding work using direct buffers. By default they are
+   * copied to and from heap arrays for doEncode(ByteArrayEncodingState);
+   * coders that can read direct buffers in place override this. Output
+   * positions may be left anywhere, encode() restores them.
+   * @param encodingState the encoding state
+   */
+  protected void doEncode(ByteBufferEncodingState encodingState)
+      throws IOException {
+    int len = encodingState.encodeLength;
+    byte[][] inputs = new byte[encodingState.inputs.length][len];
+    byte[][] outputs = new byte[encodingState.outputs.length][len];
+    for (int i = 0; i < inputs.length; i++) {
+      encodingState.inputs[i].duplicate().get(inputs[i]);
+    }
+    counters.addStagingBytes((long) (inputs.length + outputs.length) * len);
+    doEncode(new ByteArrayEncodingState(this, len, inputs,
+        new int[inputs.length], outputs, new int[outputs.length]));
+    for (int i = 0; i < outputs.length; i++) {
+      encodingState.outputs[i].duplicate().put(outputs[i]);
+    }
+  }
+
+  /**
+   * @return what this coder has done so far
+   */
+  public CoderMetrics getMetrics() {
+    return counters;
+  }
+
+  protected CoderCounters getCounters() {
+    return counters;
+  }
+
   public int getNumDataUnits() {
     return coderOptions.getNumDataUnits();
   }
@@ -0,0 +1,31 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where GenHDFSData and readHDFS keep the cells of the stripes, as files
+ * named by absolute paths like "/exp/data/0/3". StripeStores picks the
+ * implementation; all of them can be used from several threads.
+ */
+public interface StripeStore extends Closeable {
+    /**
+     * Create or replace a file with len bytes of data.
+     */
+    void write(String path, byte[] data, int offset, int len) throws IOException;
+
+    /**
+     * @return the whole file
+     */
+    byte[] read(String path) throws IOException;
+
+    /**
+     * Read len bytes of a file at position into buf.
+     * @throws java.io.EOFException if the file ends before
+     */
+    void readFully(String path, long position, byte[] buf, int offset, int len)
+            throws IOException;
+
+    /**
+     * Delete a file, or a directory with everything below it.
+     */
+    void delete(String path) throws IOException;
+}
@@ -0,0 +1,58 @@
+import java.io.IOException;
+
+/**
+ * Creates the StripeStore GenHDFSData and readHDFS use, from system
+ * properties, so the same experiment runs against the cluster, a local
+ * directory or memory:
+ * STORE_KEY is "hdfs" (the default) for HDFS at HDFS_URI_KEY as
+ * HDFS_USER_KEY, "local" for LocalStripeStore below LOCAL_DIR_KEY, or
+ * "memory" for MemoryStripeStore.
+ */
+public final class StripeStores {
+    public static final String STORE_KEY = "stripe.store";
+    public static final String STORE_HDFS = "hdfs";
+    public static final String STORE_LOCAL = "local";
+    public static final String STORE_MEMORY = "memory";
+
+    public static final String HDFS_URI_KEY = "stripe.store.hdfs.uri";
+    public static final String HDFS_USER_KEY = "stripe.store.hdfs.user";
+    public static final String LOCAL_DIR_KEY = "stripe.store.local.dir";
+    private static final String DEFAULT_HDFS_URI = "hdfs://192.168.1.105:9000";
+    private static final String DEFAULT_HDFS_USER = "root";
+    private static final String DEFAULT_LOCAL_DIR = "stripes";
+
+    private static StripeStore defaultStore;
+
+    private StripeStores() {
+        // No called
+    }
+
+    /**
+     * @return the store set up by the properties, shared by every caller so
+     * that what one writes the others read, also with the memory store
+     */
+    public static synchronized StripeStore getDefault() throws IOException {
+        if (defaultStore == null) {
+            defaultStore = create(System.getProperty(STORE_KEY, STORE_HDFS));
+        }
+        return defaultStore;
+    }
+
+    /**
+     * @param type STORE_HDFS, STORE_LOCAL or STORE_MEMORY
+     * @return a new store of the type, set up by the properties
+     */
+    public static StripeStore create(String type) throws IOException {
+        if (STORE_HDFS.equals(type)) {
+            return new HDFSStripeStore(
+                    System.getProperty(HDFS_URI_KEY, DEFAULT_HDFS_URI),
+                    System.getProperty(HDFS_USER_KEY, DEFAULT_HDFS_USER));
+        } else if (STORE_LOCAL.equals(type)) {
+            return new LocalStripeStore(
+                    System.getProperty(LOCAL_DIR_KEY, DEFAULT_LOCAL_DIR));
+        } else if (STORE_MEMORY.equals(type)) {
+            return new MemoryStripeStore();
+        }
+        throw new IllegalArgumentException("Unknown " + STORE_KEY + ": " + type);
+    }
+}
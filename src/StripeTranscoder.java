@@ -0,0 +1,100 @@
+import com.google.common.base.Preconditions;
+
+/**
+ * The Transcoder of CodeSwitchPolicy for stripes stored a cell per file
+ * through GenHDFSData: the data cells of the stripe are read back and
+ * encoded with RSRawEncoder or MSRNewEncoder, and the parity cells are
+ * replaced. The data cells are left as they are.
+ *
+ * With deinterleaved cells, as readTrace stores them for SubPacketReader,
+ * the data is put back in the band order of MSRNewEncoder before an MSR
+ * encode and its parity deinterleaved again. RS is bytewise, so it codes
+ * the cells as stored either way.
+ */
+public class StripeTranscoder implements CodeSwitchPolicy.Transcoder {
+
+    /**
+     * Where the cells of the stripe of a block are stored.
+     */
+    public interface Paths {
+        String getDataPath(int block, int unit, int cell);
+
+        String getParityPath(int block, int unit, int cell);
+    }
+
+    private final GenHDFSData hdfsWrite;
+    private final readHDFS hdfsRead;
+    private final RSRawEncoder RSencoder;
+    private final MSRNewEncoder MSRencoder;
+    private final int cellSize;
+    private final int numCells;
+    private final boolean deinterleaved;
+    private final Paths paths;
+
+    /**
+     * @param numCells cells of a unit
+     * @param deinterleaved whether the cells are stored as
+     *                      SubPacketReader.deinterleave puts them
+     */
+    public StripeTranscoder(GenHDFSData hdfsWrite, readHDFS hdfsRead,
+                            ErasureCoderOptions coderOptions, int cellSize,
+                            int numCells, boolean deinterleaved, Paths paths) {
+        this.hdfsWrite = hdfsWrite;
+        this.hdfsRead = hdfsRead;
+        // only used from the transcoding thread of the policy
+        this.RSencoder = new RSRawEncoder(coderOptions);
+        this.MSRencoder = new MSRNewEncoder(coderOptions);
+        Preconditions.checkArgument(cellSize%MSRencoder.sliceUnit == 0,
+                "cellSize %s is not whole bands of %s", cellSize,
+                MSRencoder.sliceUnit);
+        this.cellSize = cellSize;
+        this.numCells = numCells;
+        this.deinterleaved = deinterleaved;
+        this.paths = paths;
+    }
+
+    @Override
+    public void transcode(int block, boolean toMSR) throws Exception {
+        int k = RSencoder.getNumDataUnits();
+        int r = RSencoder.getNumParityUnits();
+        int l = MSRencoder.l;
+        boolean reorder = toMSR && deinterleaved;
+        byte[] cell = reorder ? new byte[cellSize] : null;
+
+        byte[][] data = new byte[k][cellSize*numCells];
+        for (int i=0; i<k; i++) {
+            for (int j=0; j<numCells; j++) {
+                String filePath = paths.getDataPath(block, i, j);
+                if (reorder) {
+                    hdfsRead.readFully(filePath, 0, cell, 0, cellSize);
+                    SubPacketReader.interleave(cell, 0, cellSize, l,
+                            MSRencoder.sliceUnit, data[i], j*cellSize);
+                } else {
+                    hdfsRead.readFully(filePath, 0, data[i], j*cellSize,
+                            cellSize);
+                }
+            }
+        }
+
+        byte[][] parity = new byte[r][cellSize*numCells];
+        if (toMSR) {
+            MSRencoder.encode(data, parity);
+        } else {
+            RSencoder.encode(data, parity);
+        }
+
+        for (int i=0; i<r; i++) {
+            for (int j=0; j<numCells; j++) {
+                String filePath = paths.getParityPath(block, i, j);
+                if (reorder) {
+                    SubPacketReader.deinterleave(parity[i], j*cellSize,
+                            cellSize, l, MSRencoder.sliceUnit, cell, 0);
+                    hdfsWrite.createFile(filePath, cell);
+                } else {
+                    hdfsWrite.createFile(filePath, parity[i], j*cellSize,
+                            cellSize);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Writes stripes through GenHDFSData with the uploads and the encoding
+ * overlapped. The data cells of a stripe are uploaded concurrently on a
+ * bounded pool while the stripe is encoded on the encode thread of the
+ * writer, and the parity cells are uploaded concurrently as soon as the
+ * encode is done. A stripe so takes about max(data upload, encode) plus the
+ * parity upload, instead of the sum of all three.
+ *
+ * Cell j of unit i goes to dataDir/i/j and parityDir/i/j, the layout of
+ * readTrace. At most MAX_STRIPES_KEY stripes are in flight, writeStripe
+ * waits for one to complete beyond that.
+ */
+public class StripeWriter implements Closeable {
+    /**
+     * Threads uploading cells.
+     */
+    public static final String THREADS_KEY = "stripe.writer.threads";
+    /**
+     * Stripes written at the same time.
+     */
+    public static final String MAX_STRIPES_KEY = "stripe.writer.max.stripes";
+    private static final int DEFAULT_THREADS = 8;
+    private static final int DEFAULT_MAX_STRIPES = 2;
+
+    /**
+     * Times of a stripe, in ms.
+     */
+    public static final class Result {
+        private final long encodeTime;
+        private final long elapsedTime;
+
+        Result(long encodeTime, long elapsedTime) {
+            this.encodeTime = encodeTime;
+            this.elapsedTime = elapsedTime;
+        }
+
+        /**
+         * @return time spent encoding the stripe
+         */
+        public long getEncodeTime() {
+            return encodeTime;
+        }
+
+        /**
+         * @return time from writeStripe until the last cell was written
+         */
+        public long getElapsedTime() {
+            return elapsedTime;
+        }
+    }
+
+    private final GenHDFSData hdfsWrite;
+    private final RawErasureEncoder encoder;
+    // only used on encodeThread
+    private final CodingContext encodeContext;
+    private final int cellSize;
+    private final ExecutorService uploadPool;
+    private final ExecutorService encodeThread;
+    private final Semaphore stripes;
+    private final int maxStripes;
+
+    public StripeWriter(GenHDFSData hdfsWrite, RawErasureEncoder encoder,
+                        int cellSize) {
+        this(hdfsWrite, encoder, cellSize,
+                Integer.getInteger(THREADS_KEY, DEFAULT_THREADS),
+                Integer.getInteger(MAX_STRIPES_KEY, DEFAULT_MAX_STRIPES));
+    }
+
+    /**
+     * @param encoder encodes the stripes, only ever from the encode thread
+     *                of the writer, one stripe at a time
+     * @param threads threads uploading cells
+     * @param maxStripes stripes written at the same time
+     */
+    public StripeWriter(GenHDFSData hdfsWrite, RawErasureEncoder encoder,
+                        int cellSize, int threads, int maxStripes) {
+        Preconditions.checkArgument(threads > 0, "Invalid threads: %s", threads);
+        Preconditions.checkArgument(maxStripes > 0,
+                "Invalid maxStripes: %s", maxStripes);
+        this.hdfsWrite = hdfsWrite;
+        this.encoder = encoder;
+        this.encodeContext = encoder.createContext();
+        this.cellSize = cellSize;
+        this.uploadPool = Executors.newFixedThreadPool(threads,
+                newThreadFactory("stripe-upload-"));
+        this.encodeThread = Executors.newSingleThreadExecutor(
+                newThreadFactory("stripe-encode-"));
+        this.stripes = new Semaphore(maxStripes);
+        this.maxStripes = maxStripes;
+    }
+
+    private static ThreadFactory newThreadFactory(final String prefix) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, prefix + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Start writing a stripe.
+     * @param data the k data units, each of the same whole number of cells;
+     *             not to be modified until the stripe completes
+     * @return completes once every data and parity cell is written, or
+     * exceptionally with the first failure
+     */
+    public CompletableFuture<Result> writeStripe(final byte[][] data,
+                                                 String dataDir,
+                                                 final String parityDir)
+            throws InterruptedException {
+        Preconditions.checkArgument(data.length == encoder.getNumDataUnits(),
+                "Invalid data units: %s", data.length);
+        final int len = data[0].length;
+        Preconditions.checkArgument(len > 0 && len%cellSize == 0,
+                "Data unit of %s bytes is not a whole number of cells", len);
+
+        stripes.acquire();
+        final long startTime = System.currentTimeMillis();
+        final long[] encodeTime = new long[1];
+        CompletableFuture<Void> dataWritten;
+        CompletableFuture<Void> parityWritten;
+        try {
+            dataWritten = uploadCells(data, dataDir);
+            parityWritten = CompletableFuture.supplyAsync(
+                    new Supplier<byte[][]>() {
+                        @Override
+                        public byte[][] get() {
+                            long encodeStart = System.currentTimeMillis();
+                            byte[][] parity =
+                                    new byte[encoder.getNumParityUnits()][len];
+                            try {
+                                encoder.encode(data, parity, encodeContext);
+                            } catch (IOException e) {
+                                throw new CompletionException(e);
+                            }
+                            encodeTime[0] = System.currentTimeMillis() - encodeStart;
+                            return parity;
+                        }
+                    }, encodeThread).thenCompose(
+                    new Function<byte[][], CompletionStage<Void>>() {
+                        @Override
+                        public CompletionStage<Void> apply(byte[][] parity) {
+                            return uploadCells(parity, parityDir);
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // rejected after close
+            stripes.release();
+            throw e;
+        }
+
+        return CompletableFuture.allOf(dataWritten, parityWritten).handle(
+                new BiFunction<Void, Throwable, Result>() {
+                    @Override
+                    public Result apply(Void ignored, Throwable failure) {
+                        stripes.release();
+                        if (failure != null) {
+                            throw failure instanceof CompletionException ?
+                                    (CompletionException) failure :
+                                    new CompletionException(failure);
+                        }
+                        return new Result(encodeTime[0],
+                                System.currentTimeMillis() - startTime);
+                    }
+                });
+    }
+
+    /**
+     * Upload every cell of units concurrently.
+     */
+    private CompletableFuture<Void> uploadCells(byte[][] units, String dir) {
+        int numCells = units[0].length / cellSize;
+        CompletableFuture<?>[] uploads =
+                new CompletableFuture<?>[units.length * numCells];
+        for (int i=0; i<units.length; i++) {
+            for (int j=0; j<numCells; j++) {
+                final byte[] unit = units[i];
+                final int offset = j * cellSize;
+                final String filePath = dir + "/" + String.valueOf(i) + "/" +
+                        String.valueOf(j);
+                uploads[i*numCells + j] = CompletableFuture.runAsync(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    hdfsWrite.createFile(filePath, unit, offset,
+                                            cellSize);
+                                } catch (Exception e) {
+                                    throw new CompletionException(e);
+                                }
+                            }
+                        }, uploadPool);
+            }
+        }
+        return CompletableFuture.allOf(uploads);
+    }
+
+    /**
+     * Wait for the stripes in flight, and stop the threads of the writer.
+     */
+    @Override
+    public void close() {
+        stripes.acquireUninterruptibly(maxStripes);
+        encodeThread.shutdown();
+        uploadPool.shutdown();
+    }
+}
@@ -0,0 +1,268 @@
+import com.google.common.base.Preconditions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads the sub-packets of the helpers of an MSR repair, as picked by
+ * MSRNewDecoder.requiredDataFormat, through readHDFS. The reads of all the
+ * helpers run concurrently on a bounded pool, with positional reads, and
+ * sub-packets next to each other in the same file are read with a single
+ * ranged read.
+ *
+ * MSRNew interleaves the sub-packets of a unit in bands of sliceUnit bytes,
+ * sub-packet j being slice j of every band, so in that order a sub-packet
+ * is spread over the whole unit. The units are therefore stored in cells of
+ * cellSize bytes, each cell with its part of every sub-packet in one piece,
+ * as deinterleave puts them, and read back to the band order the decoder
+ * expects.
+ */
+public class SubPacketReader implements Closeable {
+    /**
+     * Reads in flight at the same time.
+     */
+    public static final String THREADS_KEY = "subpacket.reader.threads";
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     * Where the cells of a stripe are stored, in the order of deinterleave.
+     */
+    public interface Layout {
+        /**
+         * @return file holding cell cell of unit unit
+         */
+        String getPath(int unit, int cell);
+
+        /**
+         * @return offset in its file of the part of sub-packet subPacket held
+         * by the cell
+         */
+        long getOffset(int unit, int cell, int subPacket);
+    }
+
+    /**
+     * A file per cell, unitDirs[i]/c for cell c of unit i, the layout of
+     * readTrace.
+     */
+    public static Layout filePerCell(final String[] unitDirs,
+                                     final int cellSize,
+                                     final int numSubPackets) {
+        final int partSize = cellSize/numSubPackets;
+        return new Layout() {
+            @Override
+            public String getPath(int unit, int cell) {
+                return unitDirs[unit] + "/" + String.valueOf(cell);
+            }
+
+            @Override
+            public long getOffset(int unit, int cell, int subPacket) {
+                return (long) subPacket * partSize;
+            }
+        };
+    }
+
+    /**
+     * A file per unit, unitFiles[i], with its cells one after another.
+     */
+    public static Layout filePerUnit(final String[] unitFiles,
+                                     final int cellSize,
+                                     final int numSubPackets) {
+        final int partSize = cellSize/numSubPackets;
+        return new Layout() {
+            @Override
+            public String getPath(int unit, int cell) {
+                return unitFiles[unit];
+            }
+
+            @Override
+            public long getOffset(int unit, int cell, int subPacket) {
+                return (long) cell * cellSize + (long) subPacket * partSize;
+            }
+        };
+    }
+
+    /**
+     * Put len bytes of src, whole bands of sliceUnit bytes with sub-packet j
+     * in slice j of every band, into dst as the numSubPackets sub-packets
+     * one after another.
+     */
+    public static void deinterleave(byte[] src, int srcOffset, int len,
+                                    int numSubPackets, int sliceUnit,
+                                    byte[] dst, int dstOffset) {
+        Preconditions.checkArgument(len%sliceUnit == 0 &&
+                sliceUnit%numSubPackets == 0,
+                "Invalid length %s for bands of %s", len, sliceUnit);
+        int slice = sliceUnit/numSubPackets;
+        int numBands = len/sliceUnit;
+        for (int j=0; j<numSubPackets; j++) {
+            for (int b=0; b<numBands; b++) {
+                System.arraycopy(src, srcOffset + b*sliceUnit + j*slice,
+                        dst, dstOffset + (j*numBands + b)*slice, slice);
+            }
+        }
+    }
+
+    /**
+     * The inverse of deinterleave.
+     */
+    public static void interleave(byte[] src, int srcOffset, int len,
+                                  int numSubPackets, int sliceUnit,
+                                  byte[] dst, int dstOffset) {
+        Preconditions.checkArgument(len%sliceUnit == 0 &&
+                sliceUnit%numSubPackets == 0,
+                "Invalid length %s for bands of %s", len, sliceUnit);
+        int slice = sliceUnit/numSubPackets;
+        int numBands = len/sliceUnit;
+        for (int j=0; j<numSubPackets; j++) {
+            for (int b=0; b<numBands; b++) {
+                System.arraycopy(src, srcOffset + (j*numBands + b)*slice,
+                        dst, dstOffset + b*sliceUnit + j*slice, slice);
+            }
+        }
+    }
+
+    private final readHDFS hdfsRead;
+    private final int cellSize;
+    private final int numCells;
+    private final int sliceUnit;
+    private final ExecutorService pool;
+
+    /**
+     * @param cellSize bytes of a cell, whole bands of sliceUnit bytes
+     * @param numCells cells of a unit
+     * @param sliceUnit band of the MSRNew coders
+     */
+    public SubPacketReader(readHDFS hdfsRead, int cellSize, int numCells,
+                           int sliceUnit) {
+        this(hdfsRead, cellSize, numCells, sliceUnit,
+                Integer.getInteger(THREADS_KEY, DEFAULT_THREADS));
+    }
+
+    public SubPacketReader(readHDFS hdfsRead, int cellSize, int numCells,
+                           int sliceUnit, int threads) {
+        Preconditions.checkArgument(threads > 0, "Invalid threads: %s", threads);
+        Preconditions.checkArgument(cellSize > 0 && cellSize%sliceUnit == 0,
+                "cellSize %s is not whole bands of %s", cellSize, sliceUnit);
+        this.hdfsRead = hdfsRead;
+        this.cellSize = cellSize;
+        this.numCells = numCells;
+        this.sliceUnit = sliceUnit;
+        final AtomicInteger count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r,
+                        "subpacket-reader-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Read sub-packet j of unit i to units[i], in the band order of the
+     * MSRNew coders, for every format[i][j] == 1, and wait for all of them.
+     * @param format which sub-packets to read, the rows of units with none
+     *               may be null
+     * @param units the buffers of the units, numCells*cellSize bytes each;
+     *              allocated for units read that have none
+     * @return ranged reads issued
+     */
+    public int read(Layout layout, int[][] format, byte[][] units)
+            throws IOException {
+        List<Callable<Void>> reads = new ArrayList<>();
+        for (int i=0; i<format.length; i++) {
+            if (format[i] == null) {
+                continue;
+            }
+            int numSubPackets = format[i].length;
+            Preconditions.checkArgument(sliceUnit%numSubPackets == 0,
+                    "Invalid sub-packets: %s", numSubPackets);
+            int partSize = cellSize/numSubPackets;
+            for (int c=0; c<numCells; c++) {
+                int j = 0;
+                while (j < numSubPackets) {
+                    if (format[i][j] != 1) {
+                        j++;
+                        continue;
+                    }
+                    // extend over the sub-packets following it in the same file
+                    String path = layout.getPath(i, c);
+                    long offset = layout.getOffset(i, c, j);
+                    int end = j + 1;
+                    while (end < numSubPackets && format[i][end] == 1 &&
+                            layout.getOffset(i, c, end) ==
+                                    offset + (long) (end - j) * partSize) {
+                        end++;
+                    }
+                    if (units[i] == null) {
+                        units[i] = new byte[numCells*cellSize];
+                    }
+                    reads.add(newRead(path, offset, units[i], c*cellSize,
+                            numSubPackets, j, end));
+                    j = end;
+                }
+            }
+        }
+
+        List<Future<Void>> results;
+        try {
+            results = pool.invokeAll(reads);
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading sub-packets");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        return reads.size();
+    }
+
+    /**
+     * Read sub-packets [first, end) of a cell and put every slice of them
+     * in its band of the cell at cellOffset of unit.
+     */
+    private Callable<Void> newRead(final String path, final long position,
+                                   final byte[] unit, final int cellOffset,
+                                   final int numSubPackets, final int first,
+                                   final int end) {
+        return new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                int slice = sliceUnit/numSubPackets;
+                int numBands = cellSize/sliceUnit;
+                int partSize = numBands*slice;
+                byte[] buf = new byte[(end - first)*partSize];
+                hdfsRead.readFully(path, position, buf, 0, buf.length);
+                for (int j=first; j<end; j++) {
+                    int from = (j - first)*partSize;
+                    for (int b=0; b<numBands; b++) {
+                        System.arraycopy(buf, from + b*slice, unit,
+                                cellOffset + b*sliceUnit + j*slice, slice);
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+}
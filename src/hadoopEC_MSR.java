@@ -1,6 +1,11 @@
+import util.RSUtil;
+
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 public class hadoopEC_MSR {
     private MSRRawDecoder decoder;
@@ -19,8 +24,7 @@ public class hadoopEC_MSR {
     public hadoopEC_MSR(int n, int k, int cellsize, int nodeSize) throws Exception {
         this.n = n;
         this.k = k;
-        int m =n/(n-k);
-        this.l = (int)Math.pow((n-k), m);
+        this.l = RSUtil.getMSRSubPackets(n, k);
         this.cellsize = cellsize;
         coderOptions = new ErasureCoderOptions(k, n-k, false);
         originData = new byte[k*l][];
@@ -52,6 +56,23 @@ public class hadoopEC_MSR {
     }
 
 
+    /**
+     * nodeEncode for blocks on local disk: data block j is the file
+     * blockDir/prefix+j holding the cells of unit j in order, and they are
+     * encoded through memory mappings into blockDir/MSR64+prefix+j.
+     */
+    public void nodeEncodeMapped(String blockDir, String prefix) throws IOException {
+        Path[] dataBlocks = new Path[k];
+        Path[] parityBlocks = new Path[n-k];
+        for (int j=0; j < k; j++)
+            dataBlocks[j] = Paths.get(blockDir, prefix + String.valueOf(j));
+        for (int j=0; j < (n-k); j++)
+            parityBlocks[j] = Paths.get(blockDir, "MSR64" + prefix + String.valueOf(j));
+        MappedBlockEncoder mappedEncoder = new MappedBlockEncoder(
+                new MSRRawEncoder(coderOptions), l, cellsize);
+        mappedEncoder.encode(dataBlocks, parityBlocks);
+    }
+
     private static void printMatrix(int[][] matrix, int row, int col) {
         for (int i=0; i<row; i++) {
             if (matrix[i] == null) {
@@ -114,28 +135,11 @@ public class hadoopEC_MSR {
             long TendTime = System.currentTimeMillis();
             TsumTime += TendTime - TstartTime;
             TsumData += k*cellsize;
-            int calLen = 1024*1024;
-            for (int p = 0; p<calLen ; p++) {
-                int mlen = cellsize/calLen;
-                byte[][] mInput = new byte[n][];
-                for (int ii=0; ii<n; ii++){
-                    if (inputData[i] == null)
-                        mInput[i] = null;
-                    else {
-                        byte[] tmp = new byte[mlen];
-                        System.arraycopy(inputData[i], mlen*p, tmp, 0, mlen);
-                        mInput[i] = tmp;
-                    }
-                }
-                long startTime = System.currentTimeMillis();
-                hec.decodeStep(mInput);
-                long endTime = System.currentTimeMillis();
-                sumTime += endTime - startTime;
-            }
-            // long startTime = System.currentTimeMillis();
-            // hec.decodeStep(inputData);
-            // long endTime = System.currentTimeMillis();
-            // sumTime += endTime-startTime;
+            // the whole stripe in one call, the decoder and its plan kept
+            long startTime = System.currentTimeMillis();
+            hec.decodeStep(inputData);
+            long endTime = System.currentTimeMillis();
+            sumTime += endTime - startTime;
         }
         System.out.println("The decoding time is：" + sumTime + "ms");
         System.out.println("The Transformation time is：" + TsumTime + "ms");
@@ -151,6 +155,8 @@ public class hadoopEC_MSR {
 
     private void encodeStep() throws IOException {
         encoder = new MSRRawEncoder(coderOptions);
+        // a stripe is k*l cells, spread it over all the cores
+        encoder.setParallelPool(ForkJoinPool.commonPool());
         encoder.encode(originData, parityData);
     }
 
@@ -159,7 +165,8 @@ public class hadoopEC_MSR {
         byte[][] output = new byte[len*l][];
         for (int i=0; i < len*l; i++)
             output[i] = new byte[cellsize];
-        decoder = new MSRRawDecoder(coderOptions);
+        if (decoder == null)
+            decoder = new MSRRawDecoder(coderOptions);
         decoder.decode(inputData, erasedIndexes, output);
         // checkStep(output);
     }
@@ -1,4 +1,6 @@
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Random;
 
@@ -48,6 +50,23 @@ public class hadoopEC_RS {
         }
     }
 
+    /**
+     * nodeEncode for blocks on local disk: data block j is the file
+     * blockDir/prefix+j holding the cells of unit j in order, and they are
+     * encoded through memory mappings into blockDir/RS+prefix+j.
+     */
+    public void nodeEncodeMapped(String blockDir, String prefix) throws IOException {
+        Path[] dataBlocks = new Path[k];
+        Path[] parityBlocks = new Path[n-k];
+        for (int j=0; j < k; j++)
+            dataBlocks[j] = Paths.get(blockDir, prefix + String.valueOf(j));
+        for (int j=0; j < (n-k); j++)
+            parityBlocks[j] = Paths.get(blockDir, "RS" + prefix + String.valueOf(j));
+        MappedBlockEncoder mappedEncoder = new MappedBlockEncoder(
+                new RSRawEncoder(coderOptions), 1, cellsize);
+        mappedEncoder.encode(dataBlocks, parityBlocks);
+    }
+
     private void setRSParameter(int n, int k, int cellsize) {
         this.n = n;
         this.k = k;
@@ -108,24 +127,11 @@ public class hadoopEC_RS {
             long TendTime = System.currentTimeMillis();
             TsumTime += TendTime - TstartTime;
             TsumData += k*cellsize;
-            int calLen = 1024*1024;
-            for (int p = 0; p<calLen ; p++) {
-                int mlen = cellsize/calLen;
-                byte[][] mInput = new byte[n][];
-                for (int ii=0; ii<n; ii++){
-                    if (inputData[ii] == null)
-                        mInput[ii] = null;
-                    else {
-                        byte[] tmp = new byte[mlen];
-                        System.arraycopy(inputData[ii], mlen*p, tmp, 0, mlen);
-                        mInput[ii] = tmp;
-                    }
-                }
-                long startTime = System.currentTimeMillis();
-                hec.RSdecodeStep(mInput);
-                long endTime = System.currentTimeMillis();
-                sumTime += endTime - startTime;
-            }
+            // the whole cell in one call, the decoder and its plan kept
+            long startTime = System.currentTimeMillis();
+            hec.RSdecodeStep(inputData);
+            long endTime = System.currentTimeMillis();
+            sumTime += endTime - startTime;
         }
         System.out.println("The decoding time is：" + sumTime + "ms");
         System.out.println("The Transformation time is：" + TsumTime + "ms");
@@ -149,7 +155,8 @@ public class hadoopEC_RS {
         byte[][] output = new byte[len][];
         for (int i=0; i < len; i++)
             output[i] = new byte[cellsize];
-        RSdecoder = new RSRawDecoder(coderOptions);
+        if (RSdecoder == null)
+            RSdecoder = new RSRawDecoder(coderOptions);
         RSdecoder.decode(inputData, erasedIndexes, output);
         // checkStep(output);
     }
@@ -1,5 +1,5 @@
 import io.netty.buffer.ByteBuf;
-import org.omg.CORBA.MARSHAL;
+import util.CoderMetricsSource;
 
 import java.io.File;
 import java.io.FileReader;
@@ -9,14 +9,9 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.HashMap;
 
 public class readH {
-    private HashMap<Integer, Double> mapProbab = new HashMap<Integer, Double>();
-    private HashMap<Integer, Boolean> mapHot = new HashMap<Integer, Boolean>();
-    private HashMap<Integer, Integer> mapRead = new HashMap<Integer, Integer>();
-    private HashMap<Integer, Integer> mapWrite = new HashMap<Integer, Integer>();
-    private HashMap<Integer, Boolean> ismsr = new HashMap<Integer, Boolean>();
+    private CodeSwitchPolicy policy;
     private Random randomGenerator = new Random(10);
     private ErasureCoderOptions coderOptions;
     private int totalBlock;
@@ -42,6 +37,7 @@ public class readH {
         int m = (k+r)/r;
         l = (int) Math.pow(r, m);
         this.totalBlock = nodeSize;
+        policy = new CodeSwitchPolicy(totalBlock, CodeSwitchPolicy.HOT_READ_MOSTLY);
         int fileSize = k*l*cellSize;
         // Create read and write API
         hdfsWrite = new GenHDFSData(cellSize, nodeSize);
@@ -52,6 +48,21 @@ public class readH {
         RSdecoder = new RSRawDecoder(coderOptions);
         MSRencoder = new MSRNewEncoder(coderOptions);
         MSRdecoder = new MSRNewDecoder(coderOptions);
+        // blocks switched on reads are re-encoded in the background
+        policy.setTranscoder(new StripeTranscoder(hdfsWrite, hdfsRead,
+                coderOptions, cellSize, l, false, new StripeTranscoder.Paths() {
+                    @Override
+                    public String getDataPath(int block, int unit, int cell) {
+                        return "/expr/data2" + String.valueOf(unit) + "/" +
+                                String.valueOf(block) + "_" + String.valueOf(cell);
+                    }
+
+                    @Override
+                    public String getParityPath(int block, int unit, int cell) {
+                        return "/expr/parity2" + String.valueOf(unit) + "/" +
+                                String.valueOf(block) + "_" + String.valueOf(cell);
+                    }
+                }));
         prepareMap();
         // hdfsWrite.fillFile(k, l);
     }
@@ -59,21 +70,7 @@ public class readH {
     public void prepareMap() throws Exception {
         String mapPath = "/home/gua1s/hashMap.txt";
         try {
-            FileReader fr = new FileReader(mapPath);
-            BufferedReader br = new BufferedReader(fr);
-            String line = "";
-            String[] arrs = null;
-            while ((line=br.readLine())!=null) {
-                arrs = line.split(",");
-                int blockNo = Integer.valueOf(arrs[0]);
-                int isHot = Integer.valueOf(arrs[1]);
-                double prop = Double.valueOf(arrs[4]);
-                mapProbab.put(blockNo, prop);
-                mapHot.put(blockNo, (isHot == 1));
-                // ismsr.put(blockNo, false);
-            }
-            br.close();
-            fr.close();
+            policy.load(mapPath);
         } catch (IOException e) {
             System.out.println(e.toString());
             throw e;
@@ -81,7 +78,6 @@ public class readH {
     }
 
     public byte[][] MSRencodeStep(byte[][] input) {
-        MSRencoder = new MSRNewEncoder(coderOptions);
         byte[][] output = new byte[r][];
         for (int i=0; i<r; i++) {
             output[i] = new byte[cellSize*l];
@@ -97,7 +93,6 @@ public class readH {
         erasedIndexes[0] = errorno;
         byte[][] output = new byte[1][];
         output[0] = new byte[cellSize*l];
-        MSRdecoder = new MSRNewDecoder(coderOptions);
         ByteArrayDecodingState decodingState = new ByteArrayDecodingState(MSRdecoder,
                 input, erasedIndexes, output);
         MSRdecoder.doDecode(decodingState);
@@ -106,12 +101,10 @@ public class readH {
     }
 
     public byte[][] RSencodeStep(byte[][] input) throws Exception {
-        RSdecoder = new RSRawDecoder(coderOptions);
         byte[][] output = new byte[r][];
         for (int i=0; i<r; i++) {
             output[i] = new byte[cellSize*l];
         }
-        RSencoder = new RSRawEncoder(coderOptions);
         RSencoder.encode(input, output);
         return output;
 
@@ -122,7 +115,6 @@ public class readH {
         erasedIndexes[0] = errorno;
         byte[][] output = new byte[1][];
         output[0] = new byte[cellSize*l];
-        RSdecoder = new RSRawDecoder(coderOptions);
         RSdecoder.decode(input, erasedIndexes, output);
         return output;
     }
@@ -139,12 +131,14 @@ public class readH {
         if (rwFlag == 1) {
             // Is read operation
             result += "read\t";
+            policy.recordRead(blockno);
             int ran = randomGenerator.nextInt(1000);
-            if (ran < mapProbab.get(blockno)*1000) {
+            if (ran < policy.getFailureProbability(blockno)*1000) {
                 // the block is wrong
+                policy.recordFailure(blockno);
                 input = new byte[k+r][];
                 int errorno = randomGenerator.nextInt(k);
-                if (mapHot.get(blockno)) {
+                if (policy.isHot(blockno)) {
                     // Is use RS(2,2)
                     result += "rs(2,2)\n";
                     startTime = System.currentTimeMillis();
@@ -207,7 +201,7 @@ public class readH {
 
             } else {
                 // the block is right
-                if (ismsr.get(blockno)) {
+                if (policy.isMSR(blockno)) {
                     result += "msr\n";
                 } else {
                     result += "rs\n";
@@ -224,14 +218,14 @@ public class readH {
                 result += String.valueOf(endTime-startTime) + "\n";
                 result += String.valueOf(0) + "\n";
             }
+            // a block the rule now wants in the other code is transcoded
+            policy.update(blockno, false);
         } else {
             // Is write operation
             result += "write\t";
-            if (mapHot.get(blockno) && !ismsr.get(blockno)) {
-                if (mapRead.get(blockno) > mapWrite.get(blockno) && mapProbab.get(blockno) > 0.05) {
-                    ismsr.put(blockno, true);
-                }
-            }
+            policy.recordWrite(blockno);
+            // the stripe is rewritten, so it takes the code the policy wants
+            policy.update(blockno, true);
             input = new byte[k][];
             for (int i=0; i<k; i++) {
                 input[i] = new byte[cellSize*l];
@@ -250,7 +244,7 @@ public class readH {
             endTime = System.currentTimeMillis();
             sumTime = endTime - startTime;
             startTime = System.currentTimeMillis();
-            if (ismsr.get(blockno)) {
+            if (policy.isMSR(blockno)) {
                 // do msr encode
                 output = MSRencodeStep(input);
             } else {
@@ -340,6 +334,9 @@ public class readH {
     }
 
     public static final void main(String[] args) throws Exception {
+        // build the coding tables before the first request comes in
+        CoderRegistry.warmUp();
+        CoderMetricsSource.register();
         int cellSize = 1024*1024;
         int max_block_no = 2376005;
         int total_block_num = 5000;
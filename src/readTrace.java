@@ -1,5 +1,5 @@
 import io.netty.buffer.ByteBuf;
-import org.omg.CORBA.MARSHAL;
+import util.CoderMetricsSource;
 
 import java.io.File;
 import java.io.FileReader;
@@ -9,14 +9,13 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Random;
-import java.util.HashMap;
 
 public class readTrace {
-    private HashMap<Integer, Double> mapProbab = new HashMap<Integer, Double>();
-    private HashMap<Integer, Boolean> mapHot = new HashMap<Integer, Boolean>();
-    private HashMap<Integer, Integer> mapRead = new HashMap<Integer, Integer>();
-    private HashMap<Integer, Integer> mapWrite = new HashMap<Integer, Integer>();
-    private HashMap<Integer, Boolean> ismsr = new HashMap<Integer, Boolean>();
+    /**
+     * Compare every msr repair with the lost unit as stored, reading it too.
+     */
+    public static final String CHECK_REPAIR_KEY = "readtrace.check.repair";
+    private CodeSwitchPolicy policy;
     private Random randomGenerator = new Random(10);
     private ErasureCoderOptions coderOptions;
     private int totalBlock;
@@ -27,6 +26,9 @@ public class readTrace {
     private MSRNewEncoder MSRencoder;
     private RSRawDecoder RSdecoder;
     private RSRawEncoder RSencoder;
+    private StripeWriter RSwriter;
+    private SubPacketReader subPacketReader;
+    private SubPacketReader.Layout stripeLayout;
     public int k;
     public int r;
     public int l;
@@ -42,6 +44,7 @@ public class readTrace {
         int m = (k+r)/r;
         l = (int) Math.pow(r, m);
         this.totalBlock = nodeSize;
+        policy = new CodeSwitchPolicy(totalBlock, CodeSwitchPolicy.HOT_READ_MOSTLY);
         int fileSize = k*l*cellSize;
         // Create read and write API
         hdfsWrite = new GenHDFSData(cellSize, nodeSize);
@@ -51,6 +54,19 @@ public class readTrace {
         RSencoder = new RSRawEncoder(coderOptions);
         RSdecoder = new RSRawDecoder(coderOptions);
         MSRencoder = new MSRNewEncoder(coderOptions);
+        // the cells are stored with the sub-packets of msr in one piece each
+        subPacketReader = new SubPacketReader(hdfsRead, cellSize, l,
+                MSRencoder.sliceUnit);
+        String[] unitDirs = new String[k+r];
+        for (int i=0; i<k+r; i++) {
+            unitDirs[i] = i < k ? "/exp/data/" + String.valueOf(i) :
+                    "/exp/parity/" + String.valueOf(i-k);
+        }
+        stripeLayout = SubPacketReader.filePerCell(unitDirs, cellSize, l);
+        // every block stands for the one stripe under /exp, so no block is
+        // transcoded in the background: it would rewrite the parity of all
+        // of them. Blocks switch code when they are rewritten.
+        RSwriter = new StripeWriter(hdfsWrite, new RSRawEncoder(coderOptions), cellSize);
         MSRdecoder = new MSRNewDecoder(coderOptions);
         // prepareMap();
         // hdfsWrite.fillFile(k, l);
@@ -59,25 +75,7 @@ public class readTrace {
     public void prepareMap() throws Exception {
         String mapPath = "/home/gua1s/hashMap.txt";
         try {
-            FileReader fr = new FileReader(mapPath);
-            BufferedReader br = new BufferedReader(fr);
-            String line = "";
-            String[] arrs = null;
-            while ((line=br.readLine())!=null) {
-                arrs = line.split(",");
-                int blockNo = Integer.valueOf(arrs[0]);
-                int isHot = Integer.valueOf(arrs[1]);
-                int readNum = Integer.valueOf(arrs[2]);
-                int writeNum = Integer.valueOf(arrs[3]);
-                double prop = Double.valueOf(arrs[4]);
-                mapProbab.put(blockNo, prop);
-                mapHot.put(blockNo, (isHot == 1));
-                mapRead.put(blockNo, readNum);
-                mapWrite.put(blockNo, writeNum);
-                ismsr.put(blockNo, false);
-            }
-            br.close();
-            fr.close();
+            policy.load(mapPath);
         } catch (IOException e) {
             System.out.println(e.toString());
             throw e;
@@ -113,7 +111,6 @@ public class readTrace {
     }
 
     public byte[][] MSRencodeStep(byte[][] input) {
-        MSRencoder = new MSRNewEncoder(coderOptions);
         byte[][] output = new byte[r][];
         for (int i=0; i<r; i++) {
             output[i] = new byte[cellSize*l];
@@ -124,12 +121,67 @@ public class readTrace {
         return output;
     }
 
+    /**
+     * Write a stripe of new data cells and encode it with msr as they are
+     * written: the cells go round robin over the data units, and every row
+     * of cells is encoded and its parity cells written once all k units
+     * have it, so only a row of cells is held instead of the whole stripe.
+     * Every cell is stored deinterleaved, so that a repair reads each of its
+     * sub-packets in one piece. Rs is bytewise, so the rs stripes hold the
+     * same cells.
+     * @return encode time and the time spent writing data and parity
+     */
+    public long[] MSRwriteStep() throws Exception {
+        final long[] writeTime = new long[1];
+        MSRStreamEncoder streamEncoder = new MSRStreamEncoder(MSRencoder, cellSize,
+                new MSRStreamEncoder.ParityListener() {
+                    @Override
+                    public void onParity(long offset, byte[][] parity, int len)
+                            throws IOException {
+                        long start = System.currentTimeMillis();
+                        int j = (int) (offset/cellSize);
+                        byte[] cell = new byte[len];
+                        for (int i=0; i<r; i++) {
+                            String filePath = "/exp/parity/" + String.valueOf(i) + "/" +
+                                    String.valueOf(j);
+                            SubPacketReader.deinterleave(parity[i], 0, len, l,
+                                    MSRencoder.sliceUnit, cell, 0);
+                            try {
+                                hdfsWrite.createFile(filePath, cell);
+                            } catch (IOException e) {
+                                throw e;
+                            } catch (Exception e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        writeTime[0] += System.currentTimeMillis() - start;
+                    }
+                });
+        long startTime = System.currentTimeMillis();
+        byte[] cell = new byte[cellSize];
+        for (int j=0; j<l; j++) {
+            for (int i=0; i<k; i++) {
+                long start = System.currentTimeMillis();
+                byte[] tmp = hdfsWrite.genRanData();
+                String filePath = "/exp/data/" + String.valueOf(i) + "/" +
+                        String.valueOf(j);
+                SubPacketReader.deinterleave(tmp, 0, cellSize, l,
+                        MSRencoder.sliceUnit, cell, 0);
+                hdfsWrite.createFile(filePath, cell);
+                writeTime[0] += System.currentTimeMillis() - start;
+                streamEncoder.append(i, tmp);
+            }
+        }
+        streamEncoder.finish();
+        long sumTime = System.currentTimeMillis() - startTime;
+        return new long[] {sumTime - writeTime[0], writeTime[0]};
+    }
+
     public byte[][] MSRdecodeStep(byte[][] input, int errorno) {
         int[] erasedIndexes = new int[1];
         erasedIndexes[0] = errorno;
         byte[][] output = new byte[1][];
         output[0] = new byte[cellSize*l];
-        MSRdecoder = new MSRNewDecoder(coderOptions);
         ByteArrayDecodingState decodingState = new ByteArrayDecodingState(MSRdecoder,
                 input, erasedIndexes, output);
         MSRdecoder.doDecode(decodingState);
@@ -137,13 +189,26 @@ public class readTrace {
         return output;
     }
 
+    /**
+     * Read the lost unit errorno back and fail if repaired is not the same.
+     */
+    public void checkRepair(int errorno, byte[] repaired) throws IOException {
+        int[][] formatArray = new int[k+r][];
+        formatArray[errorno] = new int[l];
+        Arrays.fill(formatArray[errorno], 1);
+        byte[][] stored = new byte[k+r][];
+        subPacketReader.read(stripeLayout, formatArray, stored);
+        if (!Arrays.equals(stored[errorno], repaired)) {
+            throw new IOException("Repaired unit " + errorno +
+                    " differs from the one stored");
+        }
+    }
+
     public byte[][] RSencodeStep(byte[][] input) throws Exception {
-        RSdecoder = new RSRawDecoder(coderOptions);
         byte[][] output = new byte[r][];
         for (int i=0; i<r; i++) {
             output[i] = new byte[cellSize*l];
         }
-        RSencoder = new RSRawEncoder(coderOptions);
         RSencoder.encode(input, output);
         return output;
 
@@ -154,7 +219,6 @@ public class readTrace {
         erasedIndexes[0] = errorno;
         byte[][] output = new byte[1][];
         output[0] = new byte[cellSize*l];
-        RSdecoder = new RSRawDecoder(coderOptions);
         RSdecoder.decode(input, erasedIndexes, output);
         return output;
     }
@@ -171,46 +235,34 @@ public class readTrace {
         if (rwFlag == 1) {
             // Is read operation
             result += "read\t";
+            policy.recordRead(blockno);
             int ran = randomGenerator.nextInt(1000);
-            if (ran < mapProbab.get(blockno)*1000) {
+            if (ran < policy.getFailureProbability(blockno)*1000) {
                 // the block is wrong
+                policy.recordFailure(blockno);
                 input = new byte[k+r][];
                 // output = new byte [1][];
                 // output[0] = new byte[cellSize*l];
                 int errorno = randomGenerator.nextInt(k);
-                if (ismsr.get(blockno)) {
+                if (policy.isMSR(blockno)) {
                     // Is use msr code
                     result += "msr\n";
                     int[][] formatArray = MSRNewDecoder.requiredDataFormat(errorno, k+r, k);
                     startTime = System.currentTimeMillis();
-                    for (int i=0; i<k; i++) {
+                    for (int i=0; i<k+r; i++) {
                         input[i] = new byte[cellSize*l];
-                        for (int j=0; j<l; j++) {
-                            if (formatArray[i][j] == 1) {
-                                String filePath = "/exp/data/" + String.valueOf(i) + "/" +
-                                        String.valueOf(j);
-                                byte[] tmp = hdfsRead.readFile(filePath);
-                                System.arraycopy(tmp, 0, input[i], j * cellSize, cellSize);
-                            }
-                        }
-                    }
-                    for (int i=0; i<r; i++) {
-                        input[k+i] = new byte[cellSize*l];
-                        for (int j=0; j<l; j++) {
-                            if (formatArray[i][j] == 1) {
-                                String filePath = "/exp/parity/" + String.valueOf(i) + "/" +
-                                        String.valueOf(j);
-                                byte[] tmp = hdfsRead.readFile(filePath);
-                                System.arraycopy(tmp, 0, input[k+i], j * cellSize, cellSize);
-                            }
-                        }
                     }
+                    // the sub-packets of all the helpers, read concurrently
+                    subPacketReader.read(stripeLayout, formatArray, input);
                     endTime = System.currentTimeMillis();
                     result += String.valueOf(endTime-startTime) + "\n";
                     startTime = System.currentTimeMillis();
                     output = MSRdecodeStep(input, errorno);
                     endTime = System.currentTimeMillis();
                     result += String.valueOf(endTime-startTime) + "\n";
+                    if (Boolean.getBoolean(CHECK_REPAIR_KEY)) {
+                        checkRepair(errorno, output[0]);
+                    }
                 } else {
                     // Is use RS code
                     result += "rs\n";
@@ -245,7 +297,7 @@ public class readTrace {
 
             } else {
                 // the block is right
-                if (ismsr.get(blockno)) {
+                if (policy.isMSR(blockno)) {
                     result += "msr\n";
                 } else {
                     result += "rs\n";
@@ -265,51 +317,32 @@ public class readTrace {
         } else {
             // Is write operation
             result += "write\t";
-            if (mapHot.get(blockno) && !ismsr.get(blockno)) {
-                if (mapRead.get(blockno) > mapWrite.get(blockno) && mapProbab.get(blockno) > 0.05) {
-                    ismsr.put(blockno, true);
-                }
+            policy.recordWrite(blockno);
+            // the stripe is rewritten, so it takes the code the policy wants
+            if (policy.update(blockno, true)) {
+                // encode msr while the data is written
+                long[] times = MSRwriteStep();
+                result += String.valueOf(times[0]) + "\n";
+                result += String.valueOf(times[1]) + "\n";
+                return result;
             }
             input = new byte[k][];
             for (int i=0; i<k; i++) {
                 input[i] = new byte[cellSize*l];
             }
-            // write data
+            // write data and parity, uploads overlapping the rs encode
             startTime = System.currentTimeMillis();
             for (int i=0; i<k; i++) {
                 for (int j=0; j<l; j++) {
                     byte[] tmp = hdfsWrite.genRanData();
-                    String filePath = "/exp/data/" + String.valueOf(i) + "/" +
-                            String.valueOf(j);
-                    hdfsWrite.createFile(filePath, tmp);
                     System.arraycopy(tmp, 0, input[i], cellSize*j, cellSize);
                 }
             }
+            StripeWriter.Result written = RSwriter.writeStripe(input,
+                    "/exp/data", "/exp/parity").join();
             endTime = System.currentTimeMillis();
             sumTime = endTime - startTime;
-            startTime = System.currentTimeMillis();
-            if (ismsr.get(blockno)) {
-                // do msr encode
-                output = MSRencodeStep(input);
-            } else {
-                // do rs encode
-                output = RSencodeStep(input);
-            }
-            endTime = System.currentTimeMillis();
-            result += String.valueOf(endTime-startTime) + "\n";
-            // write parity
-            startTime = System.currentTimeMillis();
-            for (int i=0; i<r; i++) {
-                for (int j=0; j<l; j++) {
-                    byte[] tmp = new byte[cellSize];
-                    System.arraycopy(output[i], cellSize*j, tmp, 0, cellSize);
-                    String filePath = "/exp/parity/" + String.valueOf(i) + "/" +
-                            String.valueOf(j);
-                    hdfsWrite.createFile(filePath, tmp);
-                }
-            }
-            endTime = System.currentTimeMillis();
-            sumTime += endTime - startTime;
+            result += String.valueOf(written.getEncodeTime()) + "\n";
             result += String.valueOf(sumTime) + "\n";
         }
         return result;
@@ -377,6 +410,9 @@ public class readTrace {
     }
 
     public static final void main(String[] args) throws Exception {
+        // build the coding tables before the first request comes in
+        CoderRegistry.warmUp();
+        CoderMetricsSource.register();
         int cellSize = 1024*1024*4;
         int max_block_no = 2376005;
         int total_block_num = 5000;
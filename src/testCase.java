@@ -1,4 +1,5 @@
 import io.netty.buffer.ByteBuf;
+import util.RSUtil;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -38,8 +39,7 @@ public class testCase {
         this.n = n;
         this.k = k;
         int r = n - k;
-        int m = n/r;
-        this.l = (int)Math.pow(r, m);
+        this.l = RSUtil.getMSRSubPackets(n, k);
         this.cellsize = cellsize;
         this.originData = new byte[k][];
         this.parityData = new byte[r][];
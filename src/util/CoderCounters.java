@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters behind CoderMetrics. Every coder owns one, and everything
+ * added to it is added to the process wide totals of its coder class and
+ * schema as well, so coders created per call are still accounted for
+ * after they are gone. Ranges of a parallel call may add concurrently.
+ */
+public final class CoderCounters implements CoderMetrics {
+  private static final ConcurrentMap<String, CoderCounters> TOTALS =
+      new ConcurrentHashMap<>();
+
+  private final String name;
+  private final CoderCounters totals;
+  private final LongAdder calls = new LongAdder();
+  private final LongAdder[] bytesRead;
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder subPacketsRead = new LongAdder();
+  private final LongAdder multiplyAccumulates = new LongAdder();
+  private final LongAdder stagingBytes = new LongAdder();
+  private final LongAdder planCacheHits = new LongAdder();
+  private final LongAdder planCacheMisses = new LongAdder();
+
+  private CoderCounters(String name, int numUnits, CoderCounters totals) {
+    this.name = name;
+    this.totals = totals;
+    this.bytesRead = new LongAdder[numUnits];
+    for (int i = 0; i < numUnits; i++) {
+      bytesRead[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Counters for a new coder.
+   * @param coder coder class name
+   */
+  public static CoderCounters create(String coder, int numDataUnits,
+      int numParityUnits) {
+    String name = coder + "-" + numDataUnits + "-" + numParityUnits;
+    int numUnits = numDataUnits + numParityUnits;
+    CoderCounters totals = TOTALS.get(name);
+    if (totals == null) {
+      totals = new CoderCounters(name, numUnits, null);
+      CoderCounters cached = TOTALS.putIfAbsent(name, totals);
+      if (cached != null) {
+        totals = cached;
+      }
+    }
+    return new CoderCounters(name, numUnits, totals);
+  }
+
+  /**
+   * @return the totals of every coder class and schema seen so far
+   */
+  public static Collection<CoderMetrics> getTotals() {
+    return Collections.<CoderMetrics>unmodifiableCollection(TOTALS.values());
+  }
+
+  public void addCall() {
+    calls.increment();
+    if (totals != null) {
+      totals.addCall();
+    }
+  }
+
+  public void addBytesRead(int unit, long bytes) {
+    bytesRead[unit].add(bytes);
+    if (totals != null) {
+      totals.addBytesRead(unit, bytes);
+    }
+  }
+
+  public void addBytesWritten(long bytes) {
+    bytesWritten.add(bytes);
+    if (totals != null) {
+      totals.addBytesWritten(bytes);
+    }
+  }
+
+  public void addSubPacketsRead(long subPackets) {
+    subPacketsRead.add(subPackets);
+    if (totals != null) {
+      totals.addSubPacketsRead(subPackets);
+    }
+  }
+
+  public void addMultiplyAccumulates(long ops) {
+    multiplyAccumulates.add(ops);
+    if (totals != null) {
+      totals.addMultiplyAccumulates(ops);
+    }
+  }
+
+  public void addStagingBytes(long bytes) {
+    stagingBytes.add(bytes);
+    if (totals != null) {
+      totals.addStagingBytes(bytes);
+    }
+  }
+
+  public void addPlanCacheHit() {
+    planCacheHits.increment();
+    if (totals != null) {
+      totals.addPlanCacheHit();
+    }
+  }
+
+  public void addPlanCacheMiss() {
+    planCacheMisses.increment();
+    if (totals != null) {
+      totals.addPlanCacheMiss();
+    }
+  }
+
+  /**
+   * Account one coding kernel run over len bytes of each input and output.
+   * @param inputs indexes of the inputs read, or null for 0..numInputs-1;
+   *               input p belongs to unit p / subPackets
+   * @param numInputs inputs read, from the front of inputs
+   * @param subPackets inputs per unit, 1 unless the coder takes MSR
+   *                   sub-packets as separate inputs
+   * @param numOutputs outputs written
+   * @param len bytes per input and output
+   * @param coefficients non-zero coefficients the kernel applies per byte
+   */
+  public void addKernelRun(int[] inputs, int numInputs, int subPackets,
+      int numOutputs, long len, long coefficients) {
+    for (int i = 0; i < numInputs; i++) {
+      int input = inputs == null ? i : inputs[i];
+      addBytesRead(input / subPackets, len);
+    }
+    addBytesWritten(numOutputs * len);
+    addMultiplyAccumulates(coefficients * len);
+  }
+
+  /**
+   * Zero the counters of this coder. The totals are kept.
+   */
+  public void reset() {
+    calls.reset();
+    for (LongAdder unitBytes : bytesRead) {
+      unitBytes.reset();
+    }
+    bytesWritten.reset();
+    subPacketsRead.reset();
+    multiplyAccumulates.reset();
+    stagingBytes.reset();
+    planCacheHits.reset();
+    planCacheMisses.reset();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int getNumUnits() {
+    return bytesRead.length;
+  }
+
+  @Override
+  public long getCalls() {
+    return calls.sum();
+  }
+
+  @Override
+  public long getBytesRead() {
+    long sum = 0;
+    for (LongAdder unitBytes : bytesRead) {
+      sum += unitBytes.sum();
+    }
+    return sum;
+  }
+
+  @Override
+  public long getBytesRead(int unit) {
+    return bytesRead[unit].sum();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  @Override
+  public long getSubPacketsRead() {
+    return subPacketsRead.sum();
+  }
+
+  @Override
+  public long getMultiplyAccumulates() {
+    return multiplyAccumulates.sum();
+  }
+
+  @Override
+  public long getStagingBytes() {
+    return stagingBytes.sum();
+  }
+
+  @Override
+  public long getPlanCacheHits() {
+    return planCacheHits.sum();
+  }
+
+  @Override
+  public long getPlanCacheMisses() {
+    return planCacheMisses.sum();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(name);
+    sb.append("(").append(getCalls()).append(" calls, read ")
+        .append(getBytesRead()).append(" bytes [");
+    for (int i = 0; i < bytesRead.length; i++) {
+      sb.append(i == 0 ? "" : ", ").append(bytesRead[i].sum());
+    }
+    sb.append("], ").append(getSubPacketsRead()).append(" sub-packets, wrote ")
+        .append(getBytesWritten()).append(" bytes, ")
+        .append(getMultiplyAccumulates()).append(" MACs, ")
+        .append(getStagingBytes()).append(" staged bytes, plans ")
+        .append(getPlanCacheHits()).append(" hits ")
+        .append(getPlanCacheMisses()).append(" misses)");
+    return sb.toString();
+  }
+}
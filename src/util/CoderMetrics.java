@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+/**
+ * What a raw coder has done so far. Read counts are what the coding kernels
+ * actually touched, so for MSR single node repair they show the sub-packets
+ * requiredDataFormat picked rather than whole cells.
+ */
+public interface CoderMetrics {
+  /**
+   * @return coder class and schema, e.g. "MSRNewDecoder-4-2"
+   */
+  String getName();
+
+  int getNumUnits();
+
+  /**
+   * @return encode or decode calls
+   */
+  long getCalls();
+
+  /**
+   * @return bytes read from all the units
+   */
+  long getBytesRead();
+
+  /**
+   * @return bytes read from one unit of the stripe, a helper for decoders
+   */
+  long getBytesRead(int unit);
+
+  /**
+   * @return bytes written to the outputs
+   */
+  long getBytesWritten();
+
+  /**
+   * @return input sub-packets decode calls read, a unit counts as one
+   * sub-packet for RS
+   */
+  long getSubPacketsRead();
+
+  /**
+   * @return GF(2^8) multiply-accumulate operations, one per byte and
+   * coefficient applied
+   */
+  long getMultiplyAccumulates();
+
+  /**
+   * @return bytes copied in and out of staging arrays for direct buffers
+   */
+  long getStagingBytes();
+
+  long getPlanCacheHits();
+
+  long getPlanCacheMisses();
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsInfo;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+
+/**
+ * Publishes the coder totals of CoderCounters to Hadoop's MetricsSystem, one
+ * record per coder class and schema, in context "erasurecode".
+ */
+public final class CoderMetricsSource implements MetricsSource {
+  /**
+   * Set to true to have register() publish the coder totals.
+   */
+  public static final String ENABLED_KEY = "coder.metrics.hadoop";
+  public static final String SOURCE_NAME = "RawErasureCoders";
+  private static final String CONTEXT = "erasurecode";
+
+  private static final MetricsInfo CALLS =
+      Interns.info("Calls", "Encode or decode calls");
+  private static final MetricsInfo BYTES_READ =
+      Interns.info("BytesRead", "Bytes read from all units");
+  private static final MetricsInfo BYTES_WRITTEN =
+      Interns.info("BytesWritten", "Bytes written to the outputs");
+  private static final MetricsInfo SUB_PACKETS_READ =
+      Interns.info("SubPacketsRead", "Input sub-packets read by decode calls");
+  private static final MetricsInfo MULTIPLY_ACCUMULATES =
+      Interns.info("MultiplyAccumulates", "GF multiply-accumulate operations");
+  private static final MetricsInfo STAGING_BYTES =
+      Interns.info("StagingBytes", "Bytes copied through staging arrays");
+  private static final MetricsInfo PLAN_CACHE_HITS =
+      Interns.info("PlanCacheHits", "Decode plans reused");
+  private static final MetricsInfo PLAN_CACHE_MISSES =
+      Interns.info("PlanCacheMisses", "Decode plans built");
+
+  private static boolean registered;
+
+  private CoderMetricsSource() {
+    // Only through register()
+  }
+
+  /**
+   * Register with the default MetricsSystem if ENABLED_KEY is set. The
+   * caller initializes the MetricsSystem. Only the first call registers.
+   */
+  public static synchronized void register() {
+    if (registered || !Boolean.getBoolean(ENABLED_KEY)) {
+      return;
+    }
+    DefaultMetricsSystem.instance().register(SOURCE_NAME,
+        "Raw erasure coder counters", new CoderMetricsSource());
+    registered = true;
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    for (CoderMetrics metrics : CoderCounters.getTotals()) {
+      MetricsRecordBuilder builder = collector.addRecord(metrics.getName())
+          .setContext(CONTEXT)
+          .addCounter(CALLS, metrics.getCalls())
+          .addCounter(BYTES_READ, metrics.getBytesRead())
+          .addCounter(BYTES_WRITTEN, metrics.getBytesWritten())
+          .addCounter(SUB_PACKETS_READ, metrics.getSubPacketsRead())
+          .addCounter(MULTIPLY_ACCUMULATES, metrics.getMultiplyAccumulates())
+          .addCounter(STAGING_BYTES, metrics.getStagingBytes())
+          .addCounter(PLAN_CACHE_HITS, metrics.getPlanCacheHits())
+          .addCounter(PLAN_CACHE_MISSES, metrics.getPlanCacheMisses());
+      for (int i = 0; i < metrics.getNumUnits(); i++) {
+        builder.addCounter(Interns.info("BytesReadUnit" + i,
+            "Bytes read from unit " + i), metrics.getBytesRead(i));
+      }
+    }
+  }
+}
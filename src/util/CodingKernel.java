@@ -0,0 +1,57 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A pluggable implementation of the GF(2^8) multiply-accumulate loop behind
+ * RSUtil.encodeData. Implementations consume the 32-byte low/high nibble
+ * tables produced by RSUtil.initTables and must produce exactly the same
+ * bytes as the built-in Java loop.
+ */
+interface CodingKernel {
+
+  /**
+   * Name reported by RSUtil.getKernelName().
+   */
+  String getName();
+
+  /**
+   * XOR the products of inputs and coefficients into outputs, see
+   * RSUtil.encodeData for the parameter contract.
+   */
+  void encodeData(byte[] gfTables, int dataLen, byte[][] inputs,
+      int[] inputOffsets, byte[][] outputs, int[] outputOffsets);
+
+  /**
+   * Same as encodeData, applied to numSlices slices of sliceLen bytes that
+   * start stride bytes apart, see RSUtil.encodeDataStrided.
+   */
+  void encodeDataStrided(byte[] gfTables, int sliceLen, int numSlices,
+      int stride, byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets);
+
+  /**
+   * See above, for buffers without a backing array. Offsets are absolute
+   * indexes; positions and limits are neither used nor changed.
+   */
+  void encodeDataStrided(byte[] gfTables, int sliceLen, int numSlices,
+      int stride, ByteBuffer[] inputs, int[] inputOffsets,
+      ByteBuffer[] outputs, int[] outputOffsets);
+}
@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import java.util.Arrays;
+
+/**
+ * A compressed sparse row view of a coding matrix, used to skip the zero
+ * coefficients that dominate structured matrices such as the MSR encode
+ * matrix. For every output row it keeps the inputs whose coefficient is 1,
+ * which only need a XOR, and the remaining non-zero inputs together with
+ * their 32-byte tables, laid out as a 1 x n gfTables for RSUtil.encodeData.
+ *
+ * Immutable once built, so it can be shared between threads and coders.
+ */
+public final class CodingSchedule {
+  private final int numInputs;
+  private final int numOutputs;
+  private final int numNonZeros;
+
+  // Per output row: inputs with coefficient 1
+  private final int[][] unitInputs;
+  // Per output row: inputs with any other non-zero coefficient
+  private final int[][] mulInputs;
+  // Per output row: 32-byte tables for mulInputs, in the same order
+  private final byte[][] mulTables;
+
+  /**
+   * @param matrix coding matrix, row major, numOutputs x numInputs
+   * @param matrixOffset where the numOutputs rows start in matrix
+   */
+  public CodingSchedule(byte[] matrix, int matrixOffset, int numInputs,
+      int numOutputs) {
+    this.numInputs = numInputs;
+    this.numOutputs = numOutputs;
+    this.unitInputs = new int[numOutputs][];
+    this.mulInputs = new int[numOutputs][];
+    this.mulTables = new byte[numOutputs][];
+
+    int nonZeros = 0;
+    int[] units = new int[numInputs];
+    int[] muls = new int[numInputs];
+    for (int l = 0; l < numOutputs; l++) {
+      int numUnits = 0, numMuls = 0;
+      int rowPos = matrixOffset + l * numInputs;
+      for (int j = 0; j < numInputs; j++) {
+        byte coef = matrix[rowPos + j];
+        if (coef == 1) {
+          units[numUnits++] = j;
+        } else if (coef != 0) {
+          muls[numMuls++] = j;
+        }
+      }
+
+      unitInputs[l] = Arrays.copyOf(units, numUnits);
+      mulInputs[l] = Arrays.copyOf(muls, numMuls);
+      mulTables[l] = new byte[numMuls * 32];
+      for (int q = 0; q < numMuls; q++) {
+        GF256.gfVectMulInit(matrix[rowPos + muls[q]], mulTables[l], q * 32);
+      }
+      nonZeros += numUnits + numMuls;
+    }
+    this.numNonZeros = nonZeros;
+  }
+
+  public int getNumInputs() {
+    return numInputs;
+  }
+
+  public int getNumOutputs() {
+    return numOutputs;
+  }
+
+  /**
+   * @return count of (input, output) pairs with a non-zero coefficient,
+   *         i.e. the multiply-accumulate passes one encode call performs
+   */
+  public int getNumNonZeros() {
+    return numNonZeros;
+  }
+
+  int[] getUnitInputs(int output) {
+    return unitInputs[output];
+  }
+
+  int[] getMulInputs(int output) {
+    return mulInputs[output];
+  }
+
+  byte[] getMulTables(int output) {
+    return mulTables[output];
+  }
+
+  @Override
+  public String toString() {
+    return "CodingSchedule(" + numOutputs + " x " + numInputs + ", " +
+        numNonZeros + " non-zeros)";
+  }
+}
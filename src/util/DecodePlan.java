@@ -0,0 +1,49 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+/**
+ * What a decoder derives from an erasure pattern before it can decode: which
+ * inputs it reads, the decode matrix and the gfTables built from it. Plans
+ * are shared through DecodePlanCache, so none of the arrays may be modified
+ * once the plan is built.
+ */
+public final class DecodePlan {
+  private final int[] validIndexes;
+  private final byte[] decodeMatrix;
+  private final byte[] gfTables;
+
+  public DecodePlan(int[] validIndexes, byte[] decodeMatrix,
+      byte[] gfTables) {
+    this.validIndexes = validIndexes;
+    this.decodeMatrix = decodeMatrix;
+    this.gfTables = gfTables;
+  }
+
+  public int[] getValidIndexes() {
+    return validIndexes;
+  }
+
+  public byte[] getDecodeMatrix() {
+    return decodeMatrix;
+  }
+
+  public byte[] getGfTables() {
+    return gfTables;
+  }
+}
@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of decode plans, shared by all decoder instances so
+ * that a repair of a pattern seen before, by any decoder of the same schema,
+ * skips the matrix inversion and table generation. Thread safe. A plan is
+ * built outside the lock, so two threads missing on the same key may both
+ * build it; put() then hands the first one back to both.
+ */
+public final class DecodePlanCache {
+  public static final String CAPACITY_KEY = "decode.plan.cache.capacity";
+  private static final int DEFAULT_CAPACITY = 256;
+
+  private static final DecodePlanCache INSTANCE =
+      new DecodePlanCache(Integer.getInteger(CAPACITY_KEY, DEFAULT_CAPACITY));
+
+  private final int capacity;
+  private final LinkedHashMap<Key, DecodePlan> plans;
+  private long hits;
+  private long misses;
+
+  /**
+   * @param capacity most plans kept, 0 disables caching
+   */
+  public DecodePlanCache(final int capacity) {
+    this.capacity = capacity;
+    this.plans = new LinkedHashMap<Key, DecodePlan>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, DecodePlan> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * The cache shared by the decoders, sized by CAPACITY_KEY.
+   */
+  public static DecodePlanCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the cached plan, or null if the caller has to build it
+   */
+  public synchronized DecodePlan get(Key key) {
+    DecodePlan plan = plans.get(key);
+    if (plan != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return plan;
+  }
+
+  /**
+   * Cache a plan built after a miss.
+   * @return the plan to use, which is an earlier one if another thread has
+   *         put the same key meanwhile
+   */
+  public synchronized DecodePlan put(Key key, DecodePlan plan) {
+    DecodePlan cached = plans.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    if (capacity > 0) {
+      plans.put(key, plan);
+    }
+    return plan;
+  }
+
+  public synchronized void clear() {
+    plans.clear();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public synchronized int size() {
+    return plans.size();
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "DecodePlanCache(" + plans.size() + "/" + capacity + " plans, " +
+        hits + " hits, " + misses + " misses)";
+  }
+
+  /**
+   * Identifies a plan: the coder, its schema and the erasure pattern, that is
+   * the erased units and the units that are available to read from.
+   */
+  public static final class Key {
+    private final String coder;
+    private final int numDataUnits;
+    private final int numParityUnits;
+    private final boolean usePCM;
+    private final int[] erasedIndexes;
+    private final int[] validIndexes;
+    private final int hash;
+
+    public Key(String coder, int numDataUnits, int numParityUnits,
+        boolean usePCM, int[] erasedIndexes, int[] validIndexes) {
+      this.coder = coder;
+      this.numDataUnits = numDataUnits;
+      this.numParityUnits = numParityUnits;
+      this.usePCM = usePCM;
+      this.erasedIndexes = erasedIndexes.clone();
+      this.validIndexes = validIndexes.clone();
+
+      int h = coder.hashCode();
+      h = h * 31 + numDataUnits;
+      h = h * 31 + numParityUnits;
+      h = h * 31 + (usePCM ? 1 : 0);
+      h = h * 31 + Arrays.hashCode(this.erasedIndexes);
+      h = h * 31 + Arrays.hashCode(this.validIndexes);
+      this.hash = h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash &&
+          numDataUnits == other.numDataUnits &&
+          numParityUnits == other.numParityUnits &&
+          usePCM == other.usePCM &&
+          coder.equals(other.coder) &&
+          Arrays.equals(erasedIndexes, other.erasedIndexes) &&
+          Arrays.equals(validIndexes, other.validIndexes);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A coding kernel on top of the Java Vector API (jdk.incubator.vector). Like
+ * the SIMD kernels of ISA-L, every GF(2^8) product is formed by two byte
+ * shuffles: the low and the high nibble of each input byte select from the
+ * two 16-entry halves of the coefficient's gfTables entry, replicated across
+ * the vector, and the results are XORed into the output.
+ *
+ * Compiling this class requires --add-modules jdk.incubator.vector, and so
+ * does running it. RSUtil only loads it by reflection, so the rest of the
+ * coders work unchanged when the module is absent.
+ */
+final class GFVectorKernel implements CodingKernel {
+
+  private static final VectorSpecies<Byte> SPECIES =
+      ByteVector.SPECIES_PREFERRED;
+
+  /**
+   * Below 256 bits the shuffles don't pay for themselves against the
+   * GF256.gfMulTab() lookups.
+   */
+  private static final int MIN_LANES = 32;
+
+  /**
+   * The coefficient tables of a call, replicated across the vector: the low
+   * nibble half in the first SPECIES.length() bytes, the high one after it.
+   * One per thread, so calls allocate nothing.
+   */
+  private static final ThreadLocal<byte[]> TABLES =
+      new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+          return new byte[2 * SPECIES.length()];
+        }
+      };
+
+  private GFVectorKernel() { }
+
+  /**
+   * Replicate the 32-byte gfTables entry at tPos into tables.
+   */
+  private static void fillTables(byte[] gfTables, int tPos, byte[] tables,
+      int lanes) {
+    for (int q = 0; q < lanes; q += 16) {
+      System.arraycopy(gfTables, tPos, tables, q, 16);
+      System.arraycopy(gfTables, tPos + 16, tables, lanes + q, 16);
+    }
+  }
+
+  /**
+   * @return the kernel, or null if the preferred vector shape is too narrow
+   *         to beat the scalar loop
+   */
+  static GFVectorKernel create() {
+    if (SPECIES.length() < MIN_LANES) {
+      return null;
+    }
+    return new GFVectorKernel();
+  }
+
+  @Override
+  public String getName() {
+    return "vector" + SPECIES.vectorBitSize();
+  }
+
+  @Override
+  public void encodeData(byte[] gfTables, int dataLen, byte[][] inputs,
+      int[] inputOffsets, byte[][] outputs, int[] outputOffsets) {
+    encodeDataStrided(gfTables, dataLen, 1, 0, inputs, inputOffsets,
+        outputs, outputOffsets);
+  }
+
+  @Override
+  public void encodeDataStrided(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, byte[][] inputs, int[] inputOffsets,
+      byte[][] outputs, int[] outputOffsets) {
+    int numInputs = inputs.length;
+    int numOutputs = outputs.length;
+    int lanes = SPECIES.length();
+    int bound = SPECIES.loopBound(sliceLen);
+    int l, i, j, t, iPos, oPos, v, tPos;
+    byte[] input, output;
+    byte[] tables = TABLES.get();
+    ByteVector vTableLo, vTableHi, data, prodLo, prodHi;
+
+    for (l = 0; l < numOutputs; l++) {
+      output = outputs[l];
+
+      for (j = 0; j < numInputs; j++) {
+        input = inputs[j];
+
+        tPos = j * 32 + l * numInputs * 32;
+        fillTables(gfTables, tPos, tables, lanes);
+        vTableLo = ByteVector.fromArray(SPECIES, tables, 0);
+        vTableHi = ByteVector.fromArray(SPECIES, tables, lanes);
+
+        for (t = 0; t < numSlices; t++) {
+          iPos = inputOffsets[j] + t * stride;
+          oPos = outputOffsets[l] + t * stride;
+
+          for (i = 0; i < bound; i += lanes) {
+            data = ByteVector.fromArray(SPECIES, input, iPos + i);
+            prodLo = vTableLo.rearrange(data.and((byte) 0x0f).toShuffle());
+            prodHi = vTableHi.rearrange(
+                data.lanewise(VectorOperators.LSHR, 4).toShuffle());
+            ByteVector.fromArray(SPECIES, output, oPos + i)
+                .lanewise(VectorOperators.XOR, prodLo)
+                .lanewise(VectorOperators.XOR, prodHi)
+                .intoArray(output, oPos + i);
+          }
+
+          /**
+           * For the left bytes, do it one by one.
+           */
+          for (; i < sliceLen; i++) {
+            v = input[iPos + i];
+            output[oPos + i] ^= (byte) (gfTables[tPos + (v & 0x0f)] ^
+                gfTables[tPos + 16 + ((v >>> 4) & 0x0f)]);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * The same loop over direct buffers. Byte vectors have no byte order, the
+   * native one just saves the loads and stores a swap check.
+   */
+  @Override
+  public void encodeDataStrided(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, ByteBuffer[] inputs, int[] inputOffsets,
+      ByteBuffer[] outputs, int[] outputOffsets) {
+    int numInputs = inputs.length;
+    int numOutputs = outputs.length;
+    int lanes = SPECIES.length();
+    int bound = SPECIES.loopBound(sliceLen);
+    ByteOrder order = ByteOrder.nativeOrder();
+    int l, i, j, t, iPos, oPos, v, tPos;
+    ByteBuffer input, output;
+    byte[] tables = TABLES.get();
+    ByteVector vTableLo, vTableHi, data, prodLo, prodHi;
+
+    for (l = 0; l < numOutputs; l++) {
+      output = outputs[l];
+
+      for (j = 0; j < numInputs; j++) {
+        input = inputs[j];
+
+        tPos = j * 32 + l * numInputs * 32;
+        fillTables(gfTables, tPos, tables, lanes);
+        vTableLo = ByteVector.fromArray(SPECIES, tables, 0);
+        vTableHi = ByteVector.fromArray(SPECIES, tables, lanes);
+
+        for (t = 0; t < numSlices; t++) {
+          iPos = inputOffsets[j] + t * stride;
+          oPos = outputOffsets[l] + t * stride;
+
+          for (i = 0; i < bound; i += lanes) {
+            data = ByteVector.fromByteBuffer(SPECIES, input, iPos + i, order);
+            prodLo = vTableLo.rearrange(data.and((byte) 0x0f).toShuffle());
+            prodHi = vTableHi.rearrange(
+                data.lanewise(VectorOperators.LSHR, 4).toShuffle());
+            ByteVector.fromByteBuffer(SPECIES, output, oPos + i, order)
+                .lanewise(VectorOperators.XOR, prodLo)
+                .lanewise(VectorOperators.XOR, prodHi)
+                .intoByteBuffer(output, oPos + i, order);
+          }
+
+          for (; i < sliceLen; i++) {
+            v = input.get(iPos + i);
+            output.put(oPos + i, (byte) (output.get(oPos + i) ^
+                gfTables[tPos + (v & 0x0f)] ^
+                gfTables[tPos + 16 + ((v >>> 4) & 0x0f)]));
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import jdk.incubator.foreign.CLinker;
+import jdk.incubator.foreign.FunctionDescriptor;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemoryAddress;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+import jdk.incubator.foreign.SegmentAllocator;
+import jdk.incubator.foreign.SymbolLookup;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+
+/**
+ * Hands direct buffers to ISA-L's ec_encode_data_update through the foreign
+ * function API (jdk.incubator.foreign), by way of ec_java_encode_strided in
+ * isa/ec_java.c, which the Makefile there builds into libecjava.so. The
+ * gfTables of RSUtil.initTables are the tables of ec_init_tables, so they
+ * are passed on as they are.
+ *
+ * Compiling this class requires --add-modules jdk.incubator.foreign, and
+ * running it --enable-native-access=ALL-UNNAMED as well. RSUtil only loads
+ * it by reflection, when rsutil.native names the library.
+ */
+final class ISALKernel implements NativeCodingKernel {
+
+  private static final String ENCODE_FUNCTION = "ec_java_encode_strided";
+
+  private final MethodHandle encodeStrided;
+  /**
+   * Native copies of the gfTables coded with, keyed by the array itself:
+   * arrays hash by identity, and gfTables are never changed once built, see
+   * DecodePlan and CodingSchedule. A copy is freed once its array is
+   * collected and the map entry dropped.
+   */
+  private final Map<byte[], MemorySegment> nativeTables =
+      Collections.synchronizedMap(new WeakHashMap<byte[], MemorySegment>());
+
+  private ISALKernel(MethodHandle encodeStrided) {
+    this.encodeStrided = encodeStrided;
+  }
+
+  /**
+   * @param library path of libecjava.so
+   * @return the kernel
+   * @throws UnsatisfiedLinkError if the library or the function can not be
+   *         loaded
+   */
+  static ISALKernel create(String library) {
+    System.load(library);
+    Optional<MemoryAddress> symbol =
+        SymbolLookup.loaderLookup().lookup(ENCODE_FUNCTION);
+    if (!symbol.isPresent()) {
+      throw new UnsatisfiedLinkError(ENCODE_FUNCTION + " not found in " +
+          library);
+    }
+    MethodHandle handle = CLinker.getInstance().downcallHandle(symbol.get(),
+        MethodType.methodType(void.class, int.class, int.class, int.class,
+            int.class, int.class, MemoryAddress.class, MemoryAddress.class,
+            MemoryAddress.class),
+        FunctionDescriptor.ofVoid(CLinker.C_INT, CLinker.C_INT,
+            CLinker.C_INT, CLinker.C_INT, CLinker.C_INT, CLinker.C_POINTER,
+            CLinker.C_POINTER, CLinker.C_POINTER));
+    return new ISALKernel(handle);
+  }
+
+  @Override
+  public String getName() {
+    return "isal";
+  }
+
+  @Override
+  public void encodeDataStrided(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, ByteBuffer[] inputs, int[] inputOffsets,
+      ByteBuffer[] outputs, int[] outputOffsets) {
+    try (ResourceScope scope = ResourceScope.newConfinedScope()) {
+      SegmentAllocator allocator = SegmentAllocator.arenaAllocator(scope);
+      MemorySegment tables = getNativeTables(gfTables);
+      MemorySegment data = addresses(allocator, inputs, inputOffsets);
+      MemorySegment coding = addresses(allocator, outputs, outputOffsets);
+      encodeStrided.invokeExact(sliceLen, numSlices, stride, inputs.length,
+          outputs.length, tables.address(), data.address(),
+          coding.address());
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new IllegalStateException(t);
+    }
+  }
+
+  private MemorySegment getNativeTables(byte[] gfTables) {
+    MemorySegment tables = nativeTables.get(gfTables);
+    if (tables == null) {
+      tables = MemorySegment.allocateNative(gfTables.length,
+          ResourceScope.newImplicitScope());
+      tables.copyFrom(MemorySegment.ofArray(gfTables));
+      nativeTables.put(gfTables, tables);
+    }
+    return tables;
+  }
+
+  /**
+   * The C array of pointers to buffer i at offsets[i].
+   */
+  private static MemorySegment addresses(SegmentAllocator allocator,
+      ByteBuffer[] buffers, int[] offsets) {
+    MemorySegment pointers = allocator.allocate(
+        CLinker.C_POINTER.byteSize() * buffers.length);
+    for (int i = 0; i < buffers.length; i++) {
+      // From index 0, offsets are not relative to the position
+      MemorySegment buffer = MemorySegment.ofByteBuffer(
+          buffers[i].duplicate().clear());
+      MemoryAccess.setAddressAtIndex(pointers, i,
+          buffer.address().addOffset(offsets[i]));
+    }
+    return pointers;
+  }
+}
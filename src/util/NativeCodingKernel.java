@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A kernel in native code for direct buffers, which it can hand over by
+ * address. See CodingKernel for the contract.
+ */
+interface NativeCodingKernel {
+
+  /**
+   * Name reported by RSUtil.getNativeKernelName().
+   */
+  String getName();
+
+  /**
+   * XOR the products of inputs and coefficients into outputs, over numSlices
+   * slices of sliceLen bytes that start stride bytes apart. All buffers are
+   * direct; offsets are absolute indexes into them.
+   */
+  void encodeDataStrided(byte[] gfTables, int sliceLen, int numSlices,
+      int stride, ByteBuffer[] inputs, int[] inputOffsets,
+      ByteBuffer[] outputs, int[] outputOffsets);
+}
@@ -17,7 +17,9 @@
  */
 package util;
 
+import java.lang.reflect.InvocationTargetException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Utilities for implementing Reed-Solomon code, used by RS coder. Some of the
@@ -32,6 +34,105 @@ public final class RSUtil {
   public static GaloisField GF = GaloisField.getInstance();
   public static final int PRIMITIVE_ROOT = 2;
 
+  /**
+   * System property choosing the kernel behind encodeData:
+   * "auto" (default) uses the Vector API kernel when jdk.incubator.vector is
+   * present and wide enough, otherwise "table";
+   * "vector" forces the Vector API kernel, falling back to "table" with a
+   * warning if it cannot be loaded;
+   * "table" looks every product up in the 256-entry GF256.gfMulTab() row;
+   * "nibble" uses the 32-byte low/high tables built by initTables.
+   */
+  public static final String KERNEL_KEY = "rsutil.kernel";
+  public static final String KERNEL_AUTO = "auto";
+  public static final String KERNEL_VECTOR = "vector";
+  public static final String KERNEL_TABLE = "table";
+  public static final String KERNEL_NIBBLE = "nibble";
+
+  private static final String VECTOR_KERNEL_CLASS = "util.GFVectorKernel";
+
+  private static final String KERNEL_SETTING =
+      System.getProperty(KERNEL_KEY, KERNEL_AUTO);
+  private static final boolean USE_NIBBLE_KERNEL =
+      KERNEL_NIBBLE.equals(KERNEL_SETTING);
+  private static final CodingKernel KERNEL = loadKernel(KERNEL_SETTING);
+
+  /**
+   * Path of the libecjava.so built in isa/ to code direct buffers with, in
+   * ISA-L. Needs --add-modules jdk.incubator.foreign and
+   * --enable-native-access=ALL-UNNAMED; when it can not be loaded, direct
+   * buffers are coded in Java.
+   */
+  public static final String NATIVE_KEY = "rsutil.native";
+
+  private static final String NATIVE_KERNEL_CLASS = "util.ISALKernel";
+
+  private static final NativeCodingKernel NATIVE_KERNEL =
+      loadNativeKernel(System.getProperty(NATIVE_KEY));
+
+  /**
+   * Load the Vector API kernel by reflection, so that this class still
+   * links when jdk.incubator.vector is not available.
+   */
+  private static CodingKernel loadKernel(String setting) {
+    if (!KERNEL_AUTO.equals(setting) && !KERNEL_VECTOR.equals(setting)) {
+      return null;
+    }
+
+    CodingKernel kernel = null;
+    try {
+      kernel = (CodingKernel) Class.forName(VECTOR_KERNEL_CLASS)
+          .getDeclaredMethod("create").invoke(null);
+    } catch (Exception | LinkageError e) {
+      // Not available, use the scalar loop
+    }
+    if (kernel == null && KERNEL_VECTOR.equals(setting)) {
+      System.out.println("Vector API kernel is not available, " +
+          "run with --add-modules jdk.incubator.vector. Using " +
+          KERNEL_TABLE + " kernel");
+    }
+    return kernel;
+  }
+
+  /**
+   * Load the native kernel by reflection, for the same reason.
+   */
+  private static NativeCodingKernel loadNativeKernel(String library) {
+    if (library == null) {
+      return null;
+    }
+
+    try {
+      return (NativeCodingKernel) Class.forName(NATIVE_KERNEL_CLASS)
+          .getDeclaredMethod("create", String.class).invoke(null, library);
+    } catch (InvocationTargetException e) {
+      System.out.println("Native kernel can not be loaded from " + library +
+          ": " + e.getCause() + ". Coding direct buffers in Java");
+    } catch (Exception | LinkageError e) {
+      System.out.println("Native kernel is not available, run with " +
+          "--add-modules jdk.incubator.foreign. Coding direct buffers in Java");
+    }
+    return null;
+  }
+
+  /**
+   * @return the name of the kernel encodeData runs on
+   */
+  public static String getKernelName() {
+    if (KERNEL != null) {
+      return KERNEL.getName();
+    }
+    return USE_NIBBLE_KERNEL ? KERNEL_NIBBLE : KERNEL_TABLE;
+  }
+
+  /**
+   * @return the name of the native kernel direct buffers are coded on, or
+   *         null if there is none
+   */
+  public static String getNativeKernelName() {
+    return NATIVE_KERNEL == null ? null : NATIVE_KERNEL.getName();
+  }
+
   public static int[] getPrimitivePower(int numDataUnits, int numParityUnits) {
     int[] primitivePower = new int[numDataUnits + numParityUnits];
     // compute powers of the primitive root
@@ -95,12 +196,52 @@ public final class RSUtil {
     return result;
   }
 
+  /**
+   * The MSR construction needs r | n. Any other (n, k) is the shortening of
+   * the code with n rounded up to the next multiple of r: the extra nodes are
+   * virtual data nodes, always zero, placed after the k real ones. They are
+   * never stored, read or multiplied, their columns are simply left out of
+   * the parity check matrix, so the code keeps the MDS property and the
+   * (n-1)*l/r repair bandwidth.
+   *
+   * @return the number of virtual data nodes of the MSR code (n, k)
+   */
+  public static int getMSRNumVirtualUnits(int n, int k) {
+    int r = n - k;
+    return (r - n % r) % r;
+  }
+
+  /**
+   * @return the sub-packetization l = r^(n'/r) of the MSR code (n, k), n'
+   * counting the virtual nodes
+   */
+  public static int getMSRSubPackets(int n, int k) {
+    int r = n - k;
+    int m = (n + getMSRNumVirtualUnits(n, k)) / r;
+    int l = 1;
+    for (int i = 0; i < m; i++) {
+      l *= r;
+    }
+    return l;
+  }
+
+  /**
+   * @return the position of node idx in the MSR code (n, k) before
+   * shortening, which gives its group and its coefficients
+   */
+  public static int getMSRNodePosition(int idx, int n, int k) {
+    return idx < k ? idx : idx + getMSRNumVirtualUnits(n, k);
+  }
+
+  /**
+   * Generate the r*l x n*l parity check matrix of the MSR code (n, k),
+   * shortened when r does not divide n, see getMSRNumVirtualUnits().
+   */
   public static void genMSRMatrix(byte[] matrix, int n, int k){
     int r = n - k;
     int s = r;
-    int m = n/s;
-    assert n%s == 0;
-    int l = (int)Math.pow(s, m);
+    int m = (n + getMSRNumVirtualUnits(n, k))/s;
+    int l = getMSRSubPackets(n, k);
     int i, j, e;
     int t = 0;
     int[] Ary = new int[m];
@@ -111,8 +252,9 @@ public final class RSUtil {
     for(i=0; i < r; i++) {
       for (j=0; j < n; j++) {
         // the process of child matrix A(A,t)
-        u = j%s;
-        v = (j - u)/s + 1;
+        int pos = getMSRNodePosition(j, n, k);
+        u = pos%s;
+        v = (pos - u)/s + 1;
         for (a = 0; a < l; a++) {
           e = 0;
           temp = a;
@@ -162,10 +304,7 @@ public final class RSUtil {
 
   public static void genMSREncodeMatrix(byte[] MSRmatrix, byte[] MSREncodeMatrix, int n, int k){
     int r = n - k;
-    int s = r;
-    int m = n/s;
-    assert n%s == 0;
-    int l = (int)Math.pow(s, m);
+    int l = getMSRSubPackets(n, k);
     int i, j, e;
     byte[] tmpMatrix = new byte[r * l * r * l];
     byte[] invertTmpMatrix = new byte[r * l * r * l];
@@ -192,6 +331,100 @@ public final class RSUtil {
       }
   }
 
+  /**
+   * Generate the matrix that repairs node erasedIdx of the MSR code of
+   * genMSRMatrix from the l/s sub-packets each of the other n-1 nodes sends,
+   * the ones MSRNewDecoder.requiredDataFormat marks. Row b gives sub-packet b
+   * of the lost node; columns go node by node, the lost one skipped, and
+   * within a node by sub-packet.
+   *
+   * With the lost node at position u of group v, sub-packet a is numbered by
+   * its m base-s digits, and the helpers send those with digit v-1 equal to
+   * u. Of the parity checks, rows (t, a) for such a are the ones they can
+   * evaluate, and those of one a only reach the s sub-packets of the lost
+   * node that differ from a in digit v-1. So the l x l system falls apart
+   * into l/s systems of s x s, one per a, each inverted on its own: O(l*s^2)
+   * for the inversions instead of O(l^3), and only the at most s non-zero
+   * coefficients per helper of a row are multiplied out. Groups and digits
+   * are those of the node positions before shortening; virtual nodes have
+   * no columns, so they send nothing.
+   *
+   * @param repairMatrix l x (n-1)*l/s, zero filled
+   */
+  public static void genMSRRepairMatrix(byte[] MSRMatrix, byte[] repairMatrix,
+      int n, int k, int erasedIdx) {
+    int r = n - k;
+    int s = r;
+    int l = getMSRSubPackets(n, k);
+    int helperLen = l/s;
+    int numCols = (n-1)*helperLen;
+    int erasedPos = getMSRNodePosition(erasedIdx, n, k);
+    int u = erasedPos % s;
+    // weight of the digit of the lost node's group
+    int weight = (int)Math.pow(s, erasedPos / s);
+    int rowLen = n*l;
+
+    byte[] block = new byte[s*s];
+    byte[] invertBlock = new byte[s*s];
+    // per check row t of the plane: columns and coefficients of the helpers
+    int[][] cols = new int[s][(n-1)*s];
+    byte[][] coefs = new byte[s][(n-1)*s];
+    int[] numCoefs = new int[s];
+    int plane, a, t, q, p, pp, e, b, row, col, out;
+    byte c;
+
+    for (plane = 0; plane < helperLen; plane++) {
+      // insert digit u at the lost node's digit
+      a = (plane / weight) * weight * s + u * weight + plane % weight;
+
+      for (t = 0; t < s; t++) {
+        row = (t*l + a) * rowLen;
+        for (q = 0; q < s; q++) {
+          block[t*s + q] = MSRMatrix[row + erasedIdx*l + a + (q - u)*weight];
+        }
+
+        numCoefs[t] = 0;
+        for (p = 0; p < n; p++) {
+          if (p == erasedIdx) {
+            continue;
+          }
+          pp = p < erasedIdx ? p : p - 1;
+          int pPos = getMSRNodePosition(p, n, k);
+          int pWeight = (int)Math.pow(s, pPos / s);
+          int pDigit = (a / pWeight) % s;
+          // a couples sub-packets of node p when its digit is at p's position
+          int first = pDigit == pPos % s ? 0 : pDigit;
+          int last = pDigit == pPos % s ? s - 1 : pDigit;
+          for (q = first; q <= last; q++) {
+            b = a + (q - pDigit) * pWeight;
+            c = MSRMatrix[row + p*l + b];
+            if (c != 0) {
+              // b keeps digit u, drop it for the index among those sent
+              col = pp*helperLen + (b / (weight * s)) * weight + b % weight;
+              cols[t][numCoefs[t]] = col;
+              coefs[t][numCoefs[t]] = c;
+              numCoefs[t]++;
+            }
+          }
+        }
+      }
+
+      GF256.gfInvertMatrix(block, invertBlock, s);
+      for (q = 0; q < s; q++) {
+        out = (a + (q - u)*weight) * numCols;
+        for (t = 0; t < s; t++) {
+          c = invertBlock[q*s + t];
+          if (c == 0) {
+            continue;
+          }
+          for (e = 0; e < numCoefs[t]; e++) {
+            repairMatrix[out + cols[t][e]] ^= GF256.gfMul(c, coefs[t][e]);
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Encode a group of inputs data and generate the outputs. It's also used for
    * decoding because, in this implementation, encoding and decoding are
@@ -203,6 +436,17 @@ public final class RSUtil {
   public static void encodeData(byte[] gfTables, int dataLen, byte[][] inputs,
       int[] inputOffsets, byte[][] outputs,
       int[] outputOffsets) {
+    if (KERNEL != null) {
+      KERNEL.encodeData(gfTables, dataLen, inputs, inputOffsets,
+          outputs, outputOffsets);
+      return;
+    }
+    if (USE_NIBBLE_KERNEL) {
+      encodeDataNibble(gfTables, dataLen, inputs, inputOffsets,
+          outputs, outputOffsets);
+      return;
+    }
+
     int numInputs = inputs.length;
     int numOutputs = outputs.length;
     int l, i, j, iPos, oPos;
@@ -249,56 +493,628 @@ public final class RSUtil {
   }
 
   /**
-   * See above. Try to use the byte[] version when possible.
+   * Same contract as encodeData, but every product is computed the way ISA-L's
+   * SIMD kernels do it: the low and high nibble of the input byte index the
+   * two 16-entry halves of the coefficient's 32-byte gfTables entry and the
+   * two partial products are XORed. The per-coefficient working set is 32
+   * bytes instead of a 256-byte row of GF256.gfMulTab().
+   *
+   * Note the C2 JIT does not turn the table lookups into byte shuffles, so
+   * on a plain JVM this is not faster than the default kernel; it is the
+   * scalar reference for the shuffle-based kernels.
    */
-  public static void encodeData(byte[] gfTables, ByteBuffer[] inputs,
-      ByteBuffer[] outputs) {
+  public static void encodeDataNibble(byte[] gfTables, int dataLen,
+      byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets) {
     int numInputs = inputs.length;
     int numOutputs = outputs.length;
+    int l, i, j, iPos, oPos, v, tPos;
+    byte[] input, output;
+
+    for (l = 0; l < numOutputs; l++) {
+      output = outputs[l];
+      oPos = outputOffsets[l];
+
+      for (j = 0; j < numInputs; j++) {
+        input = inputs[j];
+        iPos = inputOffsets[j];
+
+        tPos = j * 32 + l * numInputs * 32;
+
+        for (i = 0; i < dataLen; i++) {
+          v = input[iPos + i];
+          output[oPos + i] ^= (byte) (gfTables[tPos + (v & 0x0f)] ^
+              gfTables[tPos + 16 + ((v >>> 4) & 0x0f)]);
+        }
+      }
+    }
+  }
+
+  /**
+   * See above. Heap buffers are unwrapped and take the byte[] version, direct
+   * buffers are coded in place by encodeSlices.
+   */
+  public static void encodeData(byte[] gfTables, ByteBuffer[] inputs,
+      ByteBuffer[] outputs) {
     int dataLen = inputs[0].remaining();
-    int l, i, j, iPos, oPos;
+    int[] inputOffsets = new int[inputs.length];
+    int[] outputOffsets = new int[outputs.length];
+    if (hasArrays(inputs) && hasArrays(outputs)) {
+      byte[][] newInputs = new byte[inputs.length][];
+      byte[][] newOutputs = new byte[outputs.length][];
+      for (int i = 0; i < inputs.length; i++) {
+        inputOffsets[i] = inputs[i].arrayOffset() + inputs[i].position();
+        newInputs[i] = inputs[i].array();
+      }
+      for (int i = 0; i < outputs.length; i++) {
+        outputOffsets[i] = outputs[i].arrayOffset() + outputs[i].position();
+        newOutputs[i] = outputs[i].array();
+      }
+      encodeData(gfTables, dataLen, newInputs, inputOffsets, newOutputs,
+          outputOffsets);
+      return;
+    }
+
+    for (int i = 0; i < inputs.length; i++) {
+      inputOffsets[i] = inputs[i].position();
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      outputOffsets[i] = outputs[i].position();
+    }
+    encodeSlices(gfTables, dataLen, 1, 0, inputs, inputOffsets, outputs,
+        outputOffsets);
+  }
+
+  /**
+   * Budget in bytes for the slices of all inputs and outputs that are worked
+   * on together by encodeDataBlocked. Sized to stay within a typical L2.
+   */
+  public static final String TILE_BUDGET_KEY = "rsutil.tile.budget";
+  private static final int TILE_BUDGET =
+      Integer.getInteger(TILE_BUDGET_KEY, 256 * 1024);
+  private static final int MIN_TILE_SIZE = 1024;
+
+  /**
+   * Get the tile length encodeDataBlocked uses for the given shape, a
+   * multiple of 64 bytes so that vector loops are not left with tails.
+   */
+  public static int getTileSize(int numInputs, int numOutputs) {
+    int tileSize = TILE_BUDGET / (numInputs + numOutputs);
+    return Math.max(MIN_TILE_SIZE, tileSize & ~63);
+  }
+
+  /**
+   * Same as encodeData, but cache blocked: the data range is cut into tiles
+   * and every output is accumulated over all the inputs for one tile before
+   * moving on to the next. Each input tile is then streamed in from memory
+   * once instead of once per output, which matters when there are many
+   * outputs, like the r*l sub-packets of the MSR coders.
+   */
+  public static void encodeDataBlocked(byte[] gfTables, int dataLen,
+      byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets) {
+    int tileSize = getTileSize(inputs.length, outputs.length);
+    if (dataLen <= tileSize) {
+      encodeData(gfTables, dataLen, inputs, inputOffsets,
+          outputs, outputOffsets);
+      return;
+    }
+
+    int[] tileInputOffsets = new int[inputs.length];
+    int[] tileOutputOffsets = new int[outputs.length];
+    for (int pos = 0; pos < dataLen; pos += tileSize) {
+      for (int i = 0; i < inputs.length; i++) {
+        tileInputOffsets[i] = inputOffsets[i] + pos;
+      }
+      for (int i = 0; i < outputs.length; i++) {
+        tileOutputOffsets[i] = outputOffsets[i] + pos;
+      }
+      encodeData(gfTables, Math.min(tileSize, dataLen - pos), inputs,
+          tileInputOffsets, outputs, tileOutputOffsets);
+    }
+  }
+
+  /**
+   * See above. Buffer positions and limits are not changed by the call.
+   */
+  public static void encodeDataBlocked(byte[] gfTables, ByteBuffer[] inputs,
+      ByteBuffer[] outputs) {
+    int dataLen = inputs[0].remaining();
+    int tileSize = getTileSize(inputs.length, outputs.length);
+    if (dataLen <= tileSize) {
+      encodeData(gfTables, inputs, outputs);
+      return;
+    }
+
+    ByteBuffer[] tileInputs = new ByteBuffer[inputs.length];
+    ByteBuffer[] tileOutputs = new ByteBuffer[outputs.length];
+    for (int i = 0; i < inputs.length; i++) {
+      tileInputs[i] = inputs[i].duplicate();
+    }
+    for (int i = 0; i < outputs.length; i++) {
+      tileOutputs[i] = outputs[i].duplicate();
+    }
+    for (int pos = 0; pos < dataLen; pos += tileSize) {
+      int len = Math.min(tileSize, dataLen - pos);
+      for (int i = 0; i < inputs.length; i++) {
+        int start = inputs[i].position() + pos;
+        tileInputs[i].limit(start + len);
+        tileInputs[i].position(start);
+      }
+      for (int i = 0; i < outputs.length; i++) {
+        int start = outputs[i].position() + pos;
+        tileOutputs[i].limit(start + len);
+        tileOutputs[i].position(start);
+      }
+      encodeData(gfTables, tileInputs, tileOutputs);
+    }
+  }
+
+  /**
+   * Encode following a sparse schedule: only the non-zero coefficients are
+   * applied, and the ones equal to 1 are plain XORs. Cache blocked the same
+   * way as encodeDataBlocked.
+   */
+  public static void encodeDataSparse(CodingSchedule schedule, int dataLen,
+      byte[][] inputs, int[] inputOffsets, byte[][] outputs,
+      int[] outputOffsets) {
+    int numOutputs = schedule.getNumOutputs();
+    int tileSize = getTileSize(schedule.getNumInputs(), numOutputs);
+    byte[][][] rowInputs = new byte[numOutputs][][];
+    int[][] rowInputOffsets = new int[numOutputs][];
+    byte[][] rowOutput = new byte[1][];
+    int[] rowOutputOffset = new int[1];
+    int[] units, muls;
+    int l, q, i, pos, len, iPos, oPos;
+    byte[] input, output;
+
+    for (l = 0; l < numOutputs; l++) {
+      muls = schedule.getMulInputs(l);
+      rowInputs[l] = new byte[muls.length][];
+      rowInputOffsets[l] = new int[muls.length];
+      for (q = 0; q < muls.length; q++) {
+        rowInputs[l][q] = inputs[muls[q]];
+      }
+    }
+
+    for (pos = 0; pos < dataLen; pos += tileSize) {
+      len = Math.min(tileSize, dataLen - pos);
+
+      for (l = 0; l < numOutputs; l++) {
+        output = outputs[l];
+        oPos = outputOffsets[l] + pos;
+
+        units = schedule.getUnitInputs(l);
+        for (q = 0; q < units.length; q++) {
+          input = inputs[units[q]];
+          iPos = inputOffsets[units[q]] + pos;
+          for (i = 0; i < len; i++) {
+            output[oPos + i] ^= input[iPos + i];
+          }
+        }
+
+        muls = schedule.getMulInputs(l);
+        if (muls.length == 0) {
+          continue;
+        }
+        for (q = 0; q < muls.length; q++) {
+          rowInputOffsets[l][q] = inputOffsets[muls[q]] + pos;
+        }
+        rowOutput[0] = output;
+        rowOutputOffset[0] = oPos;
+        encodeData(schedule.getMulTables(l), len, rowInputs[l],
+            rowInputOffsets[l], rowOutput, rowOutputOffset);
+      }
+    }
+  }
+
+  /**
+   * See above. Heap buffers are unwrapped and take the byte[] version.
+   */
+  public static void encodeDataSparse(CodingSchedule schedule,
+      ByteBuffer[] inputs, ByteBuffer[] outputs) {
+    int dataLen = inputs[0].remaining();
+    if (hasArrays(inputs) && hasArrays(outputs)) {
+      int[] inputOffsets = new int[inputs.length];
+      int[] outputOffsets = new int[outputs.length];
+      byte[][] newInputs = new byte[inputs.length][];
+      byte[][] newOutputs = new byte[outputs.length][];
+      for (int i = 0; i < inputs.length; i++) {
+        inputOffsets[i] = inputs[i].arrayOffset() + inputs[i].position();
+        newInputs[i] = inputs[i].array();
+      }
+      for (int i = 0; i < outputs.length; i++) {
+        outputOffsets[i] = outputs[i].arrayOffset() + outputs[i].position();
+        newOutputs[i] = outputs[i].array();
+      }
+      encodeDataSparse(schedule, dataLen, newInputs, inputOffsets,
+          newOutputs, outputOffsets);
+      return;
+    }
+
     ByteBuffer input, output;
+    int[] units, muls;
+    for (int l = 0; l < schedule.getNumOutputs(); l++) {
+      output = outputs[l];
+
+      units = schedule.getUnitInputs(l);
+      for (int q = 0; q < units.length; q++) {
+        input = inputs[units[q]];
+        xorSlices(input, input.position(), output, output.position(),
+            dataLen, 1, 0);
+      }
+
+      muls = schedule.getMulInputs(l);
+      if (muls.length == 0) {
+        continue;
+      }
+      ByteBuffer[] rowInputs = new ByteBuffer[muls.length];
+      for (int q = 0; q < muls.length; q++) {
+        rowInputs[q] = inputs[muls[q]];
+      }
+      encodeData(schedule.getMulTables(l), rowInputs,
+          new ByteBuffer[] {output});
+    }
+  }
+
+  /**
+   * Strided variants of encodeDataBlocked and encodeDataSparse, for coding
+   * units that are stored interleaved with others, like the l sub-packets of
+   * an MSR cell laid out in bands of sliceUnit bytes. Every input and output
+   * consists of numSlices slices of sliceLen bytes, slice t starting at
+   * offset + t * stride. Several entries may refer to the same array at
+   * different offsets, so a cell never has to be copied out into per
+   * sub-packet buffers. Tiles are whole slices.
+   */
+  public static void encodeDataStrided(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, byte[][] inputs, int[] inputOffsets,
+      byte[][] outputs, int[] outputOffsets) {
+    int tileSlices = getTileSlices(inputs.length, outputs.length, sliceLen);
+    int[] tileInputOffsets = new int[inputs.length];
+    int[] tileOutputOffsets = new int[outputs.length];
+    for (int t = 0; t < numSlices; t += tileSlices) {
+      for (int i = 0; i < inputs.length; i++) {
+        tileInputOffsets[i] = inputOffsets[i] + t * stride;
+      }
+      for (int i = 0; i < outputs.length; i++) {
+        tileOutputOffsets[i] = outputOffsets[i] + t * stride;
+      }
+      encodeSlices(gfTables, sliceLen, Math.min(tileSlices, numSlices - t),
+          stride, inputs, tileInputOffsets, outputs, tileOutputOffsets);
+    }
+  }
+
+  /**
+   * See above. Offsets are absolute indexes into the buffers; positions and
+   * limits are neither used nor changed.
+   */
+  public static void encodeDataStrided(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, ByteBuffer[] inputs, int[] inputOffsets,
+      ByteBuffer[] outputs, int[] outputOffsets) {
+    if (hasArrays(inputs) && hasArrays(outputs)) {
+      int[] newInputOffsets = new int[inputs.length];
+      int[] newOutputOffsets = new int[outputs.length];
+      byte[][] newInputs = new byte[inputs.length][];
+      byte[][] newOutputs = new byte[outputs.length][];
+      unwrap(inputs, inputOffsets, newInputs, newInputOffsets);
+      unwrap(outputs, outputOffsets, newOutputs, newOutputOffsets);
+      encodeDataStrided(gfTables, sliceLen, numSlices, stride, newInputs,
+          newInputOffsets, newOutputs, newOutputOffsets);
+      return;
+    }
+
+    encodeSlices(gfTables, sliceLen, numSlices, stride, inputs,
+        inputOffsets, outputs, outputOffsets);
+  }
+
+  /**
+   * Sparse version of encodeDataStrided, see encodeDataSparse.
+   */
+  public static void encodeDataSparseStrided(CodingSchedule schedule,
+      int sliceLen, int numSlices, int stride, byte[][] inputs,
+      int[] inputOffsets, byte[][] outputs, int[] outputOffsets) {
+    int numOutputs = schedule.getNumOutputs();
+    int tileSlices = getTileSlices(schedule.getNumInputs(), numOutputs,
+        sliceLen);
+    byte[][][] rowInputs = new byte[numOutputs][][];
+    int[][] rowInputOffsets = new int[numOutputs][];
+    byte[][] rowOutput = new byte[1][];
+    int[] rowOutputOffset = new int[1];
+    int[] units, muls;
+    int l, q, t, i, n, iPos, oPos;
+    byte[] input, output;
+
+    for (l = 0; l < numOutputs; l++) {
+      muls = schedule.getMulInputs(l);
+      rowInputs[l] = new byte[muls.length][];
+      rowInputOffsets[l] = new int[muls.length];
+      for (q = 0; q < muls.length; q++) {
+        rowInputs[l][q] = inputs[muls[q]];
+      }
+    }
+
+    for (t = 0; t < numSlices; t += tileSlices) {
+      n = Math.min(tileSlices, numSlices - t);
+
+      for (l = 0; l < numOutputs; l++) {
+        output = outputs[l];
+
+        units = schedule.getUnitInputs(l);
+        for (q = 0; q < units.length; q++) {
+          input = inputs[units[q]];
+          for (int b = t; b < t + n; b++) {
+            iPos = inputOffsets[units[q]] + b * stride;
+            oPos = outputOffsets[l] + b * stride;
+            for (i = 0; i < sliceLen; i++) {
+              output[oPos + i] ^= input[iPos + i];
+            }
+          }
+        }
+
+        muls = schedule.getMulInputs(l);
+        if (muls.length == 0) {
+          continue;
+        }
+        for (q = 0; q < muls.length; q++) {
+          rowInputOffsets[l][q] = inputOffsets[muls[q]] + t * stride;
+        }
+        rowOutput[0] = output;
+        rowOutputOffset[0] = outputOffsets[l] + t * stride;
+        encodeSlices(schedule.getMulTables(l), sliceLen, n, stride,
+            rowInputs[l], rowInputOffsets[l], rowOutput, rowOutputOffset);
+      }
+    }
+  }
+
+  /**
+   * See above. Offsets are absolute indexes into the buffers; positions and
+   * limits are neither used nor changed.
+   */
+  public static void encodeDataSparseStrided(CodingSchedule schedule,
+      int sliceLen, int numSlices, int stride, ByteBuffer[] inputs,
+      int[] inputOffsets, ByteBuffer[] outputs, int[] outputOffsets) {
+    if (hasArrays(inputs) && hasArrays(outputs)) {
+      int[] newInputOffsets = new int[inputs.length];
+      int[] newOutputOffsets = new int[outputs.length];
+      byte[][] newInputs = new byte[inputs.length][];
+      byte[][] newOutputs = new byte[outputs.length][];
+      unwrap(inputs, inputOffsets, newInputs, newInputOffsets);
+      unwrap(outputs, outputOffsets, newOutputs, newOutputOffsets);
+      encodeDataSparseStrided(schedule, sliceLen, numSlices, stride,
+          newInputs, newInputOffsets, newOutputs, newOutputOffsets);
+      return;
+    }
+
+    int[] units, muls;
+    for (int l = 0; l < schedule.getNumOutputs(); l++) {
+      units = schedule.getUnitInputs(l);
+      for (int q = 0; q < units.length; q++) {
+        xorSlices(inputs[units[q]], inputOffsets[units[q]], outputs[l],
+            outputOffsets[l], sliceLen, numSlices, stride);
+      }
+
+      muls = schedule.getMulInputs(l);
+      if (muls.length == 0) {
+        continue;
+      }
+      ByteBuffer[] rowInputs = new ByteBuffer[muls.length];
+      int[] rowInputOffsets = new int[muls.length];
+      for (int q = 0; q < muls.length; q++) {
+        rowInputs[q] = inputs[muls[q]];
+        rowInputOffsets[q] = inputOffsets[muls[q]];
+      }
+      encodeSlices(schedule.getMulTables(l), sliceLen, numSlices, stride,
+          rowInputs, rowInputOffsets, new ByteBuffer[] {outputs[l]},
+          new int[] {outputOffsets[l]});
+    }
+  }
+
+  private static int getTileSlices(int numInputs, int numOutputs,
+      int sliceLen) {
+    return Math.max(1, getTileSize(numInputs, numOutputs) / sliceLen);
+  }
+
+  private static void encodeSlices(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, byte[][] inputs, int[] inputOffsets,
+      byte[][] outputs, int[] outputOffsets) {
+    if (KERNEL != null) {
+      KERNEL.encodeDataStrided(gfTables, sliceLen, numSlices, stride,
+          inputs, inputOffsets, outputs, outputOffsets);
+      return;
+    }
+
+    if (USE_NIBBLE_KERNEL) {
+      int[] sliceInputOffsets = new int[inputs.length];
+      int[] sliceOutputOffsets = new int[outputs.length];
+      for (int t = 0; t < numSlices; t++) {
+        for (int i = 0; i < inputs.length; i++) {
+          sliceInputOffsets[i] = inputOffsets[i] + t * stride;
+        }
+        for (int i = 0; i < outputs.length; i++) {
+          sliceOutputOffsets[i] = outputOffsets[i] + t * stride;
+        }
+        encodeDataNibble(gfTables, sliceLen, inputs, sliceInputOffsets,
+            outputs, sliceOutputOffsets);
+      }
+      return;
+    }
+
+    int numInputs = inputs.length;
+    int l, i, j, t, iPos, oPos;
+    byte[] input, output;
     byte s;
-    final int times = dataLen / 8;
-    final int extra = dataLen - dataLen % 8;
+    final int times = sliceLen / 8;
+    final int extra = sliceLen - sliceLen % 8;
     byte[] tableLine;
 
-    for (l = 0; l < numOutputs; l++) {
+    for (l = 0; l < outputs.length; l++) {
       output = outputs[l];
 
       for (j = 0; j < numInputs; j++) {
         input = inputs[j];
-        iPos = input.position();
-        oPos = output.position();
-
         s = gfTables[j * 32 + l * numInputs * 32 + 1];
         tableLine = GF256.gfMulTab()[s & 0xff];
 
-        for (i = 0; i < times; i++, iPos += 8, oPos += 8) {
-          output.put(oPos + 0, (byte) (output.get(oPos + 0) ^
-              tableLine[0xff & input.get(iPos + 0)]));
-          output.put(oPos + 1, (byte) (output.get(oPos + 1) ^
-              tableLine[0xff & input.get(iPos + 1)]));
-          output.put(oPos + 2, (byte) (output.get(oPos + 2) ^
-              tableLine[0xff & input.get(iPos + 2)]));
-          output.put(oPos + 3, (byte) (output.get(oPos + 3) ^
-              tableLine[0xff & input.get(iPos + 3)]));
-          output.put(oPos + 4, (byte) (output.get(oPos + 4) ^
-              tableLine[0xff & input.get(iPos + 4)]));
-          output.put(oPos + 5, (byte) (output.get(oPos + 5) ^
-              tableLine[0xff & input.get(iPos + 5)]));
-          output.put(oPos + 6, (byte) (output.get(oPos + 6) ^
-              tableLine[0xff & input.get(iPos + 6)]));
-          output.put(oPos + 7, (byte) (output.get(oPos + 7) ^
-              tableLine[0xff & input.get(iPos + 7)]));
+        for (t = 0; t < numSlices; t++) {
+          iPos = inputOffsets[j] + t * stride;
+          oPos = outputOffsets[l] + t * stride;
+          for (i = 0; i < times; i++, iPos += 8, oPos += 8) {
+            output[oPos + 0] ^= tableLine[0xff & input[iPos + 0]];
+            output[oPos + 1] ^= tableLine[0xff & input[iPos + 1]];
+            output[oPos + 2] ^= tableLine[0xff & input[iPos + 2]];
+            output[oPos + 3] ^= tableLine[0xff & input[iPos + 3]];
+            output[oPos + 4] ^= tableLine[0xff & input[iPos + 4]];
+            output[oPos + 5] ^= tableLine[0xff & input[iPos + 5]];
+            output[oPos + 6] ^= tableLine[0xff & input[iPos + 6]];
+            output[oPos + 7] ^= tableLine[0xff & input[iPos + 7]];
+          }
+          for (i = extra; i < sliceLen; i++, iPos++, oPos++) {
+            output[oPos] ^= tableLine[0xff & input[iPos]];
+          }
         }
+      }
+    }
+  }
 
-        for (i = extra; i < dataLen; i++, iPos++, oPos++) {
-          output.put(oPos, (byte) (output.get(oPos) ^
-              tableLine[0xff & input.get(iPos)]));
+  /**
+   * The kernel for buffers without a backing array, on the native kernel if
+   * they are direct and it is loaded, or else on the Vector API kernel if
+   * there is one. Otherwise an absolute get and put per byte would cost
+   * a bounds check each, so the loop below reads and writes 8 byte words,
+   * looking each byte lane of an input word up in the multiply table of its
+   * coefficient. Coefficients 0 and 1 skip the lookups. Lanes line up as
+   * long as all buffers share a byte order; those that do not are read
+   * through duplicates in the order of the first output.
+   */
+  private static void encodeSlices(byte[] gfTables, int sliceLen,
+      int numSlices, int stride, ByteBuffer[] inputs, int[] inputOffsets,
+      ByteBuffer[] outputs, int[] outputOffsets) {
+    if (NATIVE_KERNEL != null && areDirect(inputs) && areDirect(outputs)) {
+      NATIVE_KERNEL.encodeDataStrided(gfTables, sliceLen, numSlices, stride,
+          inputs, inputOffsets, outputs, outputOffsets);
+      return;
+    }
+    if (KERNEL != null) {
+      KERNEL.encodeDataStrided(gfTables, sliceLen, numSlices, stride,
+          inputs, inputOffsets, outputs, outputOffsets);
+      return;
+    }
+
+    ByteOrder order = outputs[0].order();
+    inputs = inOrder(inputs, order);
+    outputs = inOrder(outputs, order);
+    int numInputs = inputs.length;
+    int l, i, j, t, iPos, oPos, coefficient;
+    ByteBuffer input, output;
+    final int extra = sliceLen - sliceLen % 8;
+    byte[] tableLine;
+
+    for (l = 0; l < outputs.length; l++) {
+      output = outputs[l];
+      for (j = 0; j < numInputs; j++) {
+        input = inputs[j];
+        coefficient = gfTables[j * 32 + l * numInputs * 32 + 1] & 0xff;
+        if (coefficient == 0) {
+          continue;
+        }
+        if (coefficient == 1) {
+          xorSlices(input, inputOffsets[j], output, outputOffsets[l],
+              sliceLen, numSlices, stride);
+          continue;
+        }
+        tableLine = GF256.gfMulTab()[coefficient];
+        for (t = 0; t < numSlices; t++) {
+          iPos = inputOffsets[j] + t * stride;
+          oPos = outputOffsets[l] + t * stride;
+          for (i = 0; i < extra; i += 8) {
+            output.putLong(oPos + i, output.getLong(oPos + i) ^
+                mulWord(tableLine, input.getLong(iPos + i)));
+          }
+          for (i = extra; i < sliceLen; i++) {
+            output.put(oPos + i, (byte) (output.get(oPos + i) ^
+                tableLine[0xff & input.get(iPos + i)]));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * XOR numSlices slices of input into output, a word at a time. This is
+   * what a coefficient of 1 in a sparse schedule amounts to.
+   */
+  private static void xorSlices(ByteBuffer input, int inputOffset,
+      ByteBuffer output, int outputOffset, int sliceLen, int numSlices,
+      int stride) {
+    if (input.order() != output.order()) {
+      input = input.duplicate().order(output.order());
+    }
+    final int extra = sliceLen - sliceLen % 8;
+    int i, iPos, oPos;
+    for (int t = 0; t < numSlices; t++) {
+      iPos = inputOffset + t * stride;
+      oPos = outputOffset + t * stride;
+      for (i = 0; i < extra; i += 8) {
+        output.putLong(oPos + i,
+            output.getLong(oPos + i) ^ input.getLong(iPos + i));
+      }
+      for (i = extra; i < sliceLen; i++) {
+        output.put(oPos + i, (byte) (output.get(oPos + i) ^
+            input.get(iPos + i)));
+      }
+    }
+  }
+
+  /**
+   * Multiply the 8 byte lanes of a word by the coefficient of tableLine.
+   */
+  private static long mulWord(byte[] tableLine, long word) {
+    return (tableLine[(int) word & 0xff] & 0xffL)
+        | (tableLine[(int) (word >>> 8) & 0xff] & 0xffL) << 8
+        | (tableLine[(int) (word >>> 16) & 0xff] & 0xffL) << 16
+        | (tableLine[(int) (word >>> 24) & 0xff] & 0xffL) << 24
+        | (tableLine[(int) (word >>> 32) & 0xff] & 0xffL) << 32
+        | (tableLine[(int) (word >>> 40) & 0xff] & 0xffL) << 40
+        | (tableLine[(int) (word >>> 48) & 0xff] & 0xffL) << 48
+        | (tableLine[(int) (word >>> 56)] & 0xffL) << 56;
+  }
+
+  private static ByteBuffer[] inOrder(ByteBuffer[] buffers, ByteOrder order) {
+    ByteBuffer[] result = buffers;
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i].order() != order) {
+        if (result == buffers) {
+          result = buffers.clone();
         }
+        result[i] = buffers[i].duplicate().order(order);
+      }
+    }
+    return result;
+  }
+
+  private static void unwrap(ByteBuffer[] buffers, int[] offsets,
+      byte[][] arrays, int[] arrayOffsets) {
+    for (int i = 0; i < buffers.length; i++) {
+      arrays[i] = buffers[i].array();
+      arrayOffsets[i] = buffers[i].arrayOffset() + offsets[i];
+    }
+  }
+
+  private static boolean areDirect(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (!buffer.isDirect()) {
+        return false;
       }
     }
+    return true;
   }
 
+  private static boolean hasArrays(ByteBuffer[] buffers) {
+    for (ByteBuffer buffer : buffers) {
+      if (!buffer.hasArray()) {
+        return false;
+      }
+    }
+    return true;
+  }
 }
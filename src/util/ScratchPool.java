@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small pool of scratch byte arrays, keyed by exact length, for coders that
+ * need staging space on every call. Coders own one each, so the buffers of a
+ * stripe shape are recycled call after call instead of being left to the
+ * young generation.
+ *
+ * Buffers handed out by take() have undefined contents. A buffer given back
+ * while the pool is at either limit is dropped.
+ */
+public final class ScratchPool {
+  public static final String MAX_BUFFERS_KEY = "scratch.pool.max.buffers";
+  public static final String MAX_BYTES_KEY = "scratch.pool.max.bytes";
+  private static final int DEFAULT_MAX_BUFFERS = 64;
+  private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  private final int maxBuffers;
+  private final long maxBytes;
+  private final Map<Integer, ArrayDeque<byte[]>> freeBuffers =
+      new HashMap<>();
+  private int numBuffers;
+  private long numBytes;
+  private long hits;
+  private long misses;
+
+  /**
+   * Limits come from the system properties MAX_BUFFERS_KEY and
+   * MAX_BYTES_KEY.
+   */
+  public ScratchPool() {
+    this(Integer.getInteger(MAX_BUFFERS_KEY, DEFAULT_MAX_BUFFERS),
+        Long.getLong(MAX_BYTES_KEY, DEFAULT_MAX_BYTES));
+  }
+
+  /**
+   * @param maxBuffers most buffers kept idle in the pool
+   * @param maxBytes most bytes kept idle in the pool
+   */
+  public ScratchPool(int maxBuffers, long maxBytes) {
+    this.maxBuffers = maxBuffers;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Get a buffer of exactly len bytes, pooled if possible.
+   */
+  public synchronized byte[] take(int len) {
+    ArrayDeque<byte[]> buffers = freeBuffers.get(len);
+    if (buffers != null && !buffers.isEmpty()) {
+      hits++;
+      numBuffers--;
+      numBytes -= len;
+      return buffers.pop();
+    }
+    misses++;
+    return new byte[len];
+  }
+
+  /**
+   * Return a buffer obtained by take(). It must not be used afterwards.
+   */
+  public synchronized void give(byte[] buffer) {
+    if (numBuffers >= maxBuffers || numBytes + buffer.length > maxBytes) {
+      return;
+    }
+    ArrayDeque<byte[]> buffers = freeBuffers.get(buffer.length);
+    if (buffers == null) {
+      buffers = new ArrayDeque<>();
+      freeBuffers.put(buffer.length, buffers);
+    }
+    buffers.push(buffer);
+    numBuffers++;
+    numBytes += buffer.length;
+  }
+
+  /**
+   * Drop all idle buffers. Counters are kept.
+   */
+  public synchronized void clear() {
+    freeBuffers.clear();
+    numBuffers = 0;
+    numBytes = 0;
+  }
+
+  public int getMaxBuffers() {
+    return maxBuffers;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public synchronized int getNumBuffers() {
+    return numBuffers;
+  }
+
+  public synchronized long getNumBytes() {
+    return numBytes;
+  }
+
+  /**
+   * @return calls to take() served from the pool
+   */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return calls to take() that had to allocate
+   */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "ScratchPool(" + numBuffers + " buffers, " + numBytes +
+        " bytes, " + hits + " hits, " + misses + " misses)";
+  }
+}